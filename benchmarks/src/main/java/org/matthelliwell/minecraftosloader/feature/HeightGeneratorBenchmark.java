@@ -0,0 +1,151 @@
+package org.matthelliwell.minecraftosloader.feature;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.matthelliwell.util.GridStorage;
+import org.matthelliwell.util.SyntheticGeometry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Fills in the heights between made up contours. Both steps change the grid they work on so each run gets a fresh copy
+ * of a grid that is built once per trial. The copy is made before the run and not timed, so these are single shot.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class HeightGeneratorBenchmark {
+    private static final double CONTOUR_INTERVAL = 10;
+
+    /**
+     * A grid with just the contours set, ready to be triangulated
+     */
+    @State(Scope.Thread)
+    public static class Contours {
+        /** Width of the square in cells. A real square is 10000 */
+        @Param({"2000", "10000"})
+        public int size;
+
+        @Param({"TRIANGLE_SCAN", "LOCATE"})
+        public InterpolationMode interpolationMode;
+
+        private SavedHeights contours;
+        private HeightGenerator generator;
+
+        @Setup(Level.Trial)
+        public void setUpTrial() {
+            contours = new SavedHeights(contourGrid(size));
+        }
+
+        @Setup(Level.Invocation)
+        public void setUpInvocation() {
+            generator = new HeightGenerator(interpolationMode, 0, GridStorage.HEAP);
+            generator.setHeightGrid(contours.copy());
+        }
+    }
+
+    /**
+     * A grid that has been triangulated, leaving the cells outside the triangles to be filled from their neighbours.
+     * Filling from the neighbours works the same whichever interpolation mode filled the triangles so only the default
+     * one is used.
+     */
+    @State(Scope.Thread)
+    public static class Triangulated {
+        /** Width of the square in cells. A real square is 10000 */
+        @Param({"2000", "10000"})
+        public int size;
+
+        private SavedHeights triangulated;
+        private HeightGenerator generator;
+
+        @Setup(Level.Trial)
+        public void setUpTrial() {
+            final HeightGrid heightGrid = contourGrid(size);
+            final HeightGenerator triangulator = new HeightGenerator(InterpolationMode.TRIANGLE_SCAN, 0, GridStorage.HEAP);
+            triangulator.setHeightGrid(heightGrid);
+            triangulator.setHeightFromTriangulation();
+            triangulated = new SavedHeights(heightGrid);
+        }
+
+        @Setup(Level.Invocation)
+        public void setUpInvocation() {
+            generator = new HeightGenerator(InterpolationMode.TRIANGLE_SCAN, 0, GridStorage.HEAP);
+            generator.setHeightGrid(triangulated.copy());
+        }
+    }
+
+    @Benchmark
+    public void triangulate(final Contours contours) {
+        contours.generator.setHeightFromTriangulation();
+    }
+
+    @Benchmark
+    public void fillFromNeighbours(final Triangulated triangulated) {
+        triangulated.generator.setHeightsFromNeighbour();
+    }
+
+    /**
+     * Makes a grid of a square with only the cells on the contours set. A cell is on a contour if the next cell along
+     * or up is in a different contour band, which gives lines of cells about as far apart as the real OS contours.
+     */
+    private static HeightGrid contourGrid(final int size) {
+        final ReferencedEnvelope bounds = new ReferencedEnvelope(SyntheticGeometry.squareBounds(size), null);
+        final HeightGrid heightGrid = new HeightGrid(bounds, GridStorage.HEAP);
+
+        final int minX = (int) bounds.getMinX();
+        final int minY = (int) bounds.getMinY();
+        for (int y = minY; y <= (int) bounds.getMaxY(); ++y) {
+            for (int x = minX; x <= (int) bounds.getMaxX(); ++x) {
+                final double band = Math.floor(SyntheticGeometry.terrainHeight(x, y) / CONTOUR_INTERVAL);
+                if (band != Math.floor(SyntheticGeometry.terrainHeight(x + 1, y) / CONTOUR_INTERVAL)
+                        || band != Math.floor(SyntheticGeometry.terrainHeight(x, y + 1) / CONTOUR_INTERVAL)) {
+                    heightGrid.setHeight(x, y, band * CONTOUR_INTERVAL);
+                }
+            }
+        }
+        return heightGrid;
+    }
+
+    /**
+     * The heights of a grid, kept so that each run can start from its own copy of the same grid
+     */
+    private static class SavedHeights {
+        private final ReferencedEnvelope bounds;
+        private final FloatBuffer heights;
+        private final float minHeight;
+        private final float maxHeight;
+
+        SavedHeights(final HeightGrid heightGrid) {
+            bounds = heightGrid.getBounds();
+            heights = FloatBuffer.allocate((int) ((bounds.getWidth() + 1) * (bounds.getHeight() + 1)));
+            heightGrid.copyHeightsTo(heights);
+            heights.flip();
+            minHeight = heightGrid.getMinHeight();
+            maxHeight = heightGrid.getMaxHeight();
+        }
+
+        HeightGrid copy() {
+            final FloatBuffer copy = FloatBuffer.allocate(heights.capacity());
+            copy.put(heights.duplicate());
+            copy.flip();
+
+            final HeightGrid heightGrid = new HeightGrid(bounds, GridStorage.HEAP);
+            heightGrid.useHeightsFrom(copy, minHeight, maxHeight);
+            return heightGrid;
+        }
+    }
+}
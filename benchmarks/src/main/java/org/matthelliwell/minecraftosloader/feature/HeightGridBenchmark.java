@@ -0,0 +1,65 @@
+package org.matthelliwell.minecraftosloader.feature;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.matthelliwell.minecraftosloader.writer.RegionExecutor;
+import org.matthelliwell.util.GridStorage;
+import org.matthelliwell.util.SyntheticGeometry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Goes over every cell of a square region by region with very little work per cell, so this measures the cost of
+ * walking the tiles and handing the regions to the workers
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class HeightGridBenchmark {
+    @Param({"1", "4"})
+    public int threads;
+
+    @Param({"HEAP", "DIRECT"})
+    public GridStorage storage;
+
+    private HeightGrid heightGrid;
+    private RegionExecutor regionExecutor;
+    private final LongAdder pass1 = new LongAdder();
+    private final LongAdder pass2 = new LongAdder();
+
+    @Setup
+    public void setUp() {
+        final ReferencedEnvelope bounds = new ReferencedEnvelope(SyntheticGeometry.squareBounds(SyntheticGeometry.SQUARE_SIZE), null);
+        heightGrid = new HeightGrid(bounds, storage);
+        heightGrid.forEach((x, y, h) -> heightGrid.setHeight(x, y, SyntheticGeometry.terrainHeight(x, y)));
+        regionExecutor = new RegionExecutor(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        regionExecutor.shutdown();
+    }
+
+    @Benchmark
+    public long visitRegions() {
+        heightGrid.forEachRegionInParallel(regionExecutor,
+                (regionX, regionZ) -> (x, y, h) -> pass1.add((long) h),
+                (regionX, regionZ) -> (x, y, h) -> pass2.add(x));
+        return pass1.sum() + pass2.sum();
+    }
+}
@@ -0,0 +1,60 @@
+package org.matthelliwell.minecraftosloader.feature;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.MultiLineString;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.matthelliwell.minecraftosloader.file.Road;
+import org.matthelliwell.util.GridStorage;
+import org.matthelliwell.util.SyntheticGeometry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Draws a grid square's worth of roads into the feature grid, a mix of minor roads and a few wide motorways
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class RoadGeneratorBenchmark {
+    private RoadGenerator generator;
+    private final List<Road> roads = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+        final Envelope bounds = SyntheticGeometry.squareBounds(SyntheticGeometry.SQUARE_SIZE);
+        final FeatureGrid featureGrid = new FeatureGrid(new ReferencedEnvelope(bounds, null), GridStorage.HEAP);
+        generator = new RoadGenerator(featureGrid, null);
+
+        final Random random = new Random(42);
+        final List<MultiLineString> lines = SyntheticGeometry.walks(random, bounds, 3_000, 20, 25);
+        for (int i = 0; i < lines.size(); ++i) {
+            final Road road = new Road();
+            road.setMultiLineString(lines.get(i));
+            road.setClassification(i % 100 == 0 ? "Motorway" : i % 5 == 0 ? "A Road" : "Local Street");
+            roads.add(road);
+        }
+    }
+
+    @Benchmark
+    public void drawRoads() {
+        for (final Road road : roads) {
+            generator.onNewRoad(road);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.matthelliwell.minecraftosloader.writer;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import net.morbz.minecraft.blocks.Material;
+import net.morbz.minecraft.level.FlatGenerator;
+import net.morbz.minecraft.level.Level;
+import net.morbz.minecraft.world.DefaultLayers;
+import net.morbz.minecraft.world.World;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.matthelliwell.minecraftosloader.feature.FeatureGrid;
+import org.matthelliwell.minecraftosloader.feature.HeightGrid;
+import org.matthelliwell.util.GridStorage;
+import org.matthelliwell.util.LineRasterizer;
+import org.matthelliwell.util.SyntheticGeometry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Gets the blocks for a region's worth of columns the way GridSquareWriter does, including the railway columns that
+ * have to be cloned and the counters, and then writes them to a world. The world is only held in memory as it is never
+ * saved.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GridSquareWriterBenchmark {
+    private static final int SIZE = 512;
+
+    private GridSquareWriter writer;
+    private FeatureGrid featureGrid;
+    private HeightGrid heightGrid;
+    private HeightScaler scaler;
+    private World world;
+
+    @Setup
+    public void setUp() {
+        final Envelope bounds = SyntheticGeometry.squareBounds(SIZE);
+        featureGrid = new FeatureGrid(new ReferencedEnvelope(bounds, null), GridStorage.HEAP);
+        heightGrid = new HeightGrid(new ReferencedEnvelope(bounds, null), GridStorage.HEAP);
+        heightGrid.forEach((x, y, h) -> heightGrid.setHeight(x, y, SyntheticGeometry.terrainHeight(x, y)));
+        scaler = new HeightScaler(heightGrid.getMinHeight(), heightGrid.getMaxHeight());
+
+        // Mostly grass, like the real squares, with a scattering of everything else and a few railway lines
+        final Random random = new Random(42);
+        heightGrid.forEach((x, y, h) -> {
+            if (random.nextInt(4) == 0) {
+                featureGrid.setFeature(x, y, (byte) random.nextInt(FeatureGrid.RAILWAY));
+            }
+        });
+        for (final MultiLineString line : SyntheticGeometry.walks(random, bounds, 4, 40, 25)) {
+            final CoordinateSequence coords = ((LineString) line.getGeometryN(0)).getCoordinateSequence();
+            for (int i = 0; i < coords.size() - 1; ++i) {
+                LineRasterizer.rasterize((int) coords.getX(i), (int) coords.getY(i), (int) coords.getX(i + 1), (int) coords.getY(i + 1),
+                        i == 0, (x, y) -> featureGrid.setFeature(x, y, FeatureGrid.RAILWAY));
+            }
+        }
+
+        writer = new GridSquareWriter(RunOptions.parse(new String[0]), null);
+
+        final DefaultLayers layers = new DefaultLayers();
+        layers.setLayer(0, Material.BEDROCK);
+        layers.setLayer(1, Material.WATER);
+        world = new World(new Level("benchmark", new FlatGenerator(layers)), layers, false);
+    }
+
+    @Benchmark
+    public void getColumns(final Blackhole blackhole) {
+        heightGrid.forEach((x, y, h) -> blackhole.consume(writer.getBlocksForColumn(x, y, Math.round(scaler.scale(h)), featureGrid, heightGrid)));
+    }
+
+    @Benchmark
+    public void getAndWriteColumns() {
+        heightGrid.forEach((x, y, h) -> world.setBlocks(x, CoordConverter.convert(y),
+                writer.getBlocksForColumn(x, y, Math.round(scaler.scale(h)), featureGrid, heightGrid)));
+    }
+}
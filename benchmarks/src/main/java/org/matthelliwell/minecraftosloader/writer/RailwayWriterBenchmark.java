@@ -0,0 +1,92 @@
+package org.matthelliwell.minecraftosloader.writer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import net.morbz.minecraft.blocks.IBlock;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.matthelliwell.minecraftosloader.feature.FeatureGrid;
+import org.matthelliwell.minecraftosloader.feature.HeightGrid;
+import org.matthelliwell.util.GridStorage;
+import org.matthelliwell.util.LineRasterizer;
+import org.matthelliwell.util.SyntheticGeometry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Works out the rail block for every railway cell in a square of made up railway lines over hilly ground
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RailwayWriterBenchmark {
+    private static final int SIZE = 2_000;
+
+    private final RailwayWriter railwayWriter = new RailwayWriter();
+    private FeatureGrid featureGrid;
+    private HeightGrid heightGrid;
+    private int[] railX = new int[1024];
+    private int[] railY = new int[1024];
+    private int railCount;
+
+    @Setup
+    public void setUp() {
+        final Envelope bounds = SyntheticGeometry.squareBounds(SIZE);
+        featureGrid = new FeatureGrid(new ReferencedEnvelope(bounds, null), GridStorage.HEAP);
+        heightGrid = new HeightGrid(new ReferencedEnvelope(bounds, null), GridStorage.HEAP);
+        heightGrid.forEach((x, y, h) -> heightGrid.setHeight(x, y, SyntheticGeometry.terrainHeight(x, y)));
+
+        final List<MultiLineString> lines = SyntheticGeometry.walks(new Random(42), bounds, 40, 40, 25);
+        for (final MultiLineString line : lines) {
+            final CoordinateSequence coords = ((LineString) line.getGeometryN(0)).getCoordinateSequence();
+            for (int i = 0; i < coords.size() - 1; ++i) {
+                LineRasterizer.rasterize((int) coords.getX(i), (int) coords.getY(i), (int) coords.getX(i + 1), (int) coords.getY(i + 1),
+                        i == 0, (x, y) -> featureGrid.setFeature(x, y, FeatureGrid.RAILWAY));
+            }
+        }
+
+        for (int y = (int) bounds.getMinY(); y <= (int) bounds.getMaxY(); ++y) {
+            for (int x = (int) bounds.getMinX(); x <= (int) bounds.getMaxX(); ++x) {
+                if (featureGrid.getFeature(x, y) == FeatureGrid.RAILWAY) {
+                    addRailCell(x, y);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void writeRails(final Blackhole blackhole) {
+        for (int i = 0; i < railCount; ++i) {
+            final IBlock block = railwayWriter.write(railX[i], railY[i], featureGrid, heightGrid);
+            blackhole.consume(block);
+        }
+    }
+
+    private void addRailCell(final int x, final int y) {
+        if (railCount == railX.length) {
+            railX = Arrays.copyOf(railX, railCount * 2);
+            railY = Arrays.copyOf(railY, railCount * 2);
+        }
+        railX[railCount] = x;
+        railY[railCount] = y;
+        ++railCount;
+    }
+}
@@ -0,0 +1,51 @@
+package org.matthelliwell.util;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Draws a grid square's worth of streams and railways a segment at a time, as MultilineStringFileLoader does
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LineRasterizerBenchmark {
+    private List<MultiLineString> lines;
+    private long cells;
+
+    @Setup
+    public void setUp() {
+        lines = SyntheticGeometry.walks(new Random(42), SyntheticGeometry.squareBounds(SyntheticGeometry.SQUARE_SIZE), 2_000, 40, 25);
+    }
+
+    @Benchmark
+    public long draw() {
+        cells = 0;
+        for (final MultiLineString line : lines) {
+            final CoordinateSequence coords = ((LineString) line.getGeometryN(0)).getCoordinateSequence();
+            for (int i = 0; i < coords.size() - 1; ++i) {
+                LineRasterizer.rasterize((int) coords.getX(i), (int) coords.getY(i), (int) coords.getX(i + 1), (int) coords.getY(i + 1),
+                        i == 0, (x, y) -> ++cells);
+            }
+        }
+        return cells;
+    }
+}
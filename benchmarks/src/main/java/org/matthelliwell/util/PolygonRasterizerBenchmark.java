@@ -0,0 +1,59 @@
+package org.matthelliwell.util;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Polygon;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Fills the polygons of a grid square's worth of buildings or woodland, as MultiploygonFileLoader does for each layer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PolygonRasterizerBenchmark {
+    /** buildings: lots of small simple polygons, woodland: fewer big detailed ones */
+    @Param({"buildings", "woodland"})
+    public String layer;
+
+    private final PolygonRasterizer rasterizer = new PolygonRasterizer();
+    private Envelope clip;
+    private List<Polygon> polygons;
+    private long cells;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        clip = SyntheticGeometry.squareBounds(SyntheticGeometry.SQUARE_SIZE);
+        if (layer.equals("buildings")) {
+            polygons = SyntheticGeometry.blobs(random, clip, 20_000, 8, 5, 15);
+        } else {
+            polygons = SyntheticGeometry.blobs(random, clip, 300, 400, 50, 400);
+        }
+    }
+
+    @Benchmark
+    public long fill() {
+        cells = 0;
+        for (final Polygon polygon : polygons) {
+            rasterizer.rasterize(polygon, clip, (y, minX, maxX) -> cells += maxX - minX + 1);
+        }
+        return cells;
+    }
+}
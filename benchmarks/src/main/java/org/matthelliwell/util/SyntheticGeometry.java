@@ -0,0 +1,103 @@
+package org.matthelliwell.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Makes made up geometries to benchmark against, roughly the sizes of the ones in the OS files. Everything comes from
+ * the random number generator passed in so a fixed seed gives the same geometries every run.
+ */
+public class SyntheticGeometry {
+    /** Size of a grid square in metres, ie cells */
+    public static final int SQUARE_SIZE = 10_000;
+
+    private static final GeometryFactory FACTORY = new GeometryFactory();
+
+    /**
+     * Returns the bounds of a grid square in the same sort of place as the real ones
+     */
+    public static Envelope squareBounds(final int size) {
+        return new Envelope(400_000, 400_000 + size, 1_100_000, 1_100_000 + size);
+    }
+
+    /**
+     * Returns polygons shaped like blobs, each with a ring of points at random distances from its centre. Every
+     * tenth one has a hole in the middle.
+     */
+    public static List<Polygon> blobs(final Random random, final Envelope bounds, final int count, final int vertices,
+                                      final double minRadius, final double maxRadius) {
+        final List<Polygon> polygons = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            final double centreX = bounds.getMinX() + random.nextDouble() * bounds.getWidth();
+            final double centreY = bounds.getMinY() + random.nextDouble() * bounds.getHeight();
+            final double radius = minRadius + random.nextDouble() * (maxRadius - minRadius);
+
+            final Coordinate[] shell = ring(random, centreX, centreY, radius, vertices);
+            if (i % 10 == 0) {
+                final Coordinate[] hole = ring(random, centreX, centreY, radius / 4, Math.max(4, vertices / 4));
+                polygons.add(FACTORY.createPolygon(FACTORY.createLinearRing(shell),
+                        new LinearRing[] {FACTORY.createLinearRing(hole)}));
+            } else {
+                polygons.add(FACTORY.createPolygon(shell));
+            }
+        }
+
+        return polygons;
+    }
+
+    /**
+     * Returns lines that wander across the bounds, turning a little at each point like roads and streams do
+     */
+    public static List<MultiLineString> walks(final Random random, final Envelope bounds, final int count,
+                                              final int segments, final double segmentLength) {
+        final List<MultiLineString> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            final Coordinate[] coords = new Coordinate[segments + 1];
+            double x = bounds.getMinX() + random.nextDouble() * bounds.getWidth();
+            double y = bounds.getMinY() + random.nextDouble() * bounds.getHeight();
+            double direction = random.nextDouble() * 2 * Math.PI;
+            coords[0] = new Coordinate(x, y);
+            for (int n = 1; n <= segments; ++n) {
+                direction += (random.nextDouble() - 0.5) * 0.6;
+                x += Math.cos(direction) * segmentLength;
+                y += Math.sin(direction) * segmentLength;
+                coords[n] = new Coordinate(x, y);
+            }
+            lines.add(FACTORY.createMultiLineString(new LineString[] {FACTORY.createLineString(coords)}));
+        }
+
+        return lines;
+    }
+
+    /**
+     * Returns a smooth made up height for a point, a few hills and valleys a few hundred metres high
+     */
+    public static double terrainHeight(final double x, final double y) {
+        return 200
+                + 150 * Math.sin(x / 700) * Math.cos(y / 900)
+                + 40 * Math.sin(x / 130 + y / 170)
+                + 10 * Math.cos(x / 37 - y / 53);
+    }
+
+    private static Coordinate[] ring(final Random random, final double centreX, final double centreY,
+                                     final double radius, final int vertices) {
+        final Coordinate[] coords = new Coordinate[vertices + 1];
+        for (int n = 0; n < vertices; ++n) {
+            final double angle = 2 * Math.PI * n / vertices;
+            final double distance = radius * (0.6 + 0.4 * random.nextDouble());
+            coords[n] = new Coordinate(centreX + Math.cos(angle) * distance, centreY + Math.sin(angle) * distance);
+        }
+        coords[vertices] = coords[0];
+
+        return coords;
+    }
+}
@@ -4,7 +4,7 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 
-import com.vividsolutions.jts.geom.Point;
+import org.matthelliwell.minecraftosloader.file.FeatureCache;
 import org.matthelliwell.minecraftosloader.file.MultiploygonFileLoader;
 
 /**
@@ -13,23 +13,22 @@ import org.matthelliwell.minecraftosloader.file.MultiploygonFileLoader;
 public class BuildingGenerator {
 
     private final FeatureGrid featureGrid;
+    private final FeatureCache featureCache;
 
-    public BuildingGenerator(final FeatureGrid featureGrid) {
+    public BuildingGenerator(final FeatureGrid featureGrid, final FeatureCache featureCache) {
         this.featureGrid = featureGrid;
+        this.featureCache = featureCache;
 
     }
 
     public void generate(final Path path, final String gridSquare) throws IOException {
         final File file = path.resolve(gridSquare.toUpperCase() + "_Building.shp").toFile();
         if (file.exists()) {
-            new MultiploygonFileLoader(file, featureGrid.getBounds(), this::onNewPointInBuilding).processFile();
+            new MultiploygonFileLoader(file, featureGrid.getBounds(), featureCache, this::onNewSpanInBuilding).processFile();
         }
     }
 
-    private void onNewPointInBuilding(final Point p) {
-        final int x = (int)p.getX();
-        final int y = (int)p.getY();
-
-        featureGrid.setFeature(x, y, FeatureGrid.BUILDING);
+    private void onNewSpanInBuilding(final int y, final int minX, final int maxX) {
+        featureGrid.setFeatures(y, minX, maxX, FeatureGrid.BUILDING);
     }
 }
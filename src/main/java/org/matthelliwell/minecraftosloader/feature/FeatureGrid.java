@@ -1,8 +1,10 @@
 package org.matthelliwell.minecraftosloader.feature;
 
-import com.vividsolutions.jts.geom.Coordinate;
+import java.nio.ByteBuffer;
+
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.matthelliwell.util.ByteArray2D;
+import org.matthelliwell.util.GridStorage;
 
 /**
  * Contains an indication of what is in each cell so that the writer can generate the appropriate blocks. This
@@ -30,14 +32,20 @@ public class FeatureGrid {
 
     private final ByteArray2D features;
 
-    public FeatureGrid(final ReferencedEnvelope bounds) {
+    // How many cells have been set, counting a cell again each time it is set. Each generator draws into its own grid
+    // so this is how much that layer drew. Only the generator's thread sets cells, and the count is read once the
+    // generator has finished, so a plain field is enough.
+    private long cellsSet;
+
+    public FeatureGrid(final ReferencedEnvelope bounds, final GridStorage storage) {
         // Create a new bounds so it has the same rounding as we are using in are max/min calculations
         this.bounds = new ReferencedEnvelope((int)bounds.getMinX(),
                 (int)bounds.getMaxX(),
                 (int)bounds.getMinY(),
                 (int)bounds.getMaxY(),
                 bounds.getCoordinateReferenceSystem());
-        features = new ByteArray2D(getMaxX() - getMinX() + 1, getMaxY() - getMinY() + 1, getMinX(), getMinY());
+        features = new ByteArray2D(getMaxX() - getMinX() + 1, getMaxY() - getMinY() + 1, getMinX(), getMinY(),
+                HeightGrid.TILE_SIZE, HeightGrid.TILE_ORIGIN_X, HeightGrid.TILE_ORIGIN_Y, storage);
     }
 
     public byte getFeature(final int x, final int y) {
@@ -53,7 +61,7 @@ public class FeatureGrid {
     }
 
     private boolean withinBounds(final int x, final int y) {
-        return bounds.contains(new Coordinate(x, y));
+        return x >= getMinX() && x <= getMaxX() && y >= getMinY() && y <= getMaxY();
     }
 
     public void setFeature(final int x, final int y, final byte feature) {
@@ -61,9 +69,56 @@ public class FeatureGrid {
         // returning some extra points. We just ignore them.
         if (withinBounds(x, y)) {
             features.set(x, y, feature);
+            ++cellsSet;
+        }
+    }
+
+    /**
+     * Sets the feature for a run of cells in a row, ignoring any that are outside the grid
+     */
+    public void setFeatures(final int y, final int minX, final int maxX, final byte feature) {
+        if (y < getMinY() || y > getMaxY()) {
+            return;
+        }
+
+        final int firstX = Math.max(minX, getMinX());
+        final int lastX = Math.min(maxX, getMaxX());
+        if (firstX <= lastX) {
+            features.fillRow(y, firstX, lastX, feature);
+            cellsSet += lastX - firstX + 1;
         }
     }
 
+    /**
+     * Copies all the features into the buffer so they can be saved
+     */
+    public void copyFeaturesTo(final ByteBuffer buffer) {
+        features.copyTo(buffer);
+    }
+
+    /**
+     * Replaces all the features with ones saved by copyFeaturesTo, reading them straight from the buffer rather than
+     * copying them
+     */
+    public void useFeaturesFrom(final ByteBuffer buffer) {
+        features.useTilesFrom(buffer);
+    }
+
+    /**
+     * Copies the features set in the layer over the ones in this grid, leaving the cells the layer hasn't set alone.
+     * The layer must have the same bounds as this grid.
+     */
+    public void overlay(final FeatureGrid layer) {
+        features.overlay(layer.features);
+    }
+
+    /**
+     * How many cells have been set in this grid, counting a cell again each time it is set
+     */
+    public long getCellsSet() {
+        return cellsSet;
+    }
+
     public ReferencedEnvelope getBounds() {
         return bounds;
     }
@@ -4,13 +4,15 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 
-import com.vividsolutions.jts.geom.Point;
+import org.matthelliwell.minecraftosloader.file.FeatureCache;
 import org.matthelliwell.minecraftosloader.file.MultiploygonFileLoader;
 
 public class ForeshoreGenerator {
     private final FeatureGrid featureGrid;
-    public ForeshoreGenerator(final FeatureGrid featureGrid) {
+    private final FeatureCache featureCache;
+    public ForeshoreGenerator(final FeatureGrid featureGrid, final FeatureCache featureCache) {
         this.featureGrid = featureGrid;
+        this.featureCache = featureCache;
     }
 
     public void generate(final Path path, final String gridSquare) throws IOException {
@@ -18,14 +20,11 @@ public class ForeshoreGenerator {
 
         // Not everywhere has seaside
         if ( file.exists() ) {
-            new MultiploygonFileLoader(file, featureGrid.getBounds(), this::onNewPointInWater).processFile();
+            new MultiploygonFileLoader(file, featureGrid.getBounds(), featureCache, this::onNewSpanInWater).processFile();
         }
     }
 
-    private void onNewPointInWater(final Point p) {
-        final int x = (int)p.getX();
-        final int y = (int)p.getY();
-
-        featureGrid.setFeature(x, y, FeatureGrid.FORESHORE);
+    private void onNewSpanInWater(final int y, final int minX, final int maxX) {
+        featureGrid.setFeatures(y, minX, maxX, FeatureGrid.FORESHORE);
     }
 }
@@ -4,28 +4,27 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 
-import com.vividsolutions.jts.geom.Point;
+import org.matthelliwell.minecraftosloader.file.FeatureCache;
 import org.matthelliwell.minecraftosloader.file.MultiploygonFileLoader;
 
 public class GlassHouseGenerator {
     private final FeatureGrid featureGrid;
+    private final FeatureCache featureCache;
 
-    public GlassHouseGenerator(final FeatureGrid featureGrid) {
+    public GlassHouseGenerator(final FeatureGrid featureGrid, final FeatureCache featureCache) {
         this.featureGrid = featureGrid;
+        this.featureCache = featureCache;
     }
     public void generate(final Path path, final String gridSquare) throws IOException {
         final File file = path.resolve(gridSquare.toUpperCase() + "_Glasshouse.shp").toFile();
 
         // Not everywhere has glasshouses
         if ( file.exists() ) {
-            new MultiploygonFileLoader(file, featureGrid.getBounds(), this::onNewPointInBuilding).processFile();
+            new MultiploygonFileLoader(file, featureGrid.getBounds(), featureCache, this::onNewSpanInBuilding).processFile();
         }
     }
 
-    private void onNewPointInBuilding(final Point p) {
-        final int x = (int)p.getX();
-        final int y = (int)p.getY();
-
-        featureGrid.setFeature(x, y, FeatureGrid.GLASSHOUSE);
+    private void onNewSpanInBuilding(final int y, final int minX, final int maxX) {
+        featureGrid.setFeatures(y, minX, maxX, FeatureGrid.GLASSHOUSE);
     }
 }
@@ -5,23 +5,53 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.triangulate.DelaunayTriangulationBuilder;
 import com.vividsolutions.jts.triangulate.quadedge.QuadEdge;
 import com.vividsolutions.jts.triangulate.quadedge.QuadEdgeSubdivision;
 import com.vividsolutions.jts.triangulate.quadedge.Vertex;
+import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.matthelliwell.minecraftosloader.file.Contour;
 import org.matthelliwell.minecraftosloader.file.ContourFileLoader;
 import org.matthelliwell.minecraftosloader.file.SpotHeight;
 import org.matthelliwell.minecraftosloader.file.SpotHeightFileLoader;
+import org.matthelliwell.util.Counters;
+import org.matthelliwell.util.GridStorage;
+import org.matthelliwell.util.StageTimings;
+import org.matthelliwell.util.TriangleRasterizer;
 
 /**
  * Loads the height grid with values from the OS files and interpolation
  */
 public class HeightGenerator {
+    private static final LongAdder CELLS_INTERPOLATED = Counters.get("cells interpolated");
+    private static final LongAdder CELLS_FROM_NEIGHBOUR = Counters.get("cells filled from nearest neighbour");
+
+    private final InterpolationMode interpolationMode;
+    private final int siteSpacing;
+    private final GridStorage storage;
+    private final TriangleRasterizer triangleRasterizer = new TriangleRasterizer();
+
     private HeightGrid heightGrid;
 
+    // The sites to triangulate if we are thinning them out, otherwise we use every cell that has a height
+    private final List<Coordinate> thinnedSites = new ArrayList<>();
+    private long pointCount;
+    private long interpolatedCount;
+
+    /**
+     * @param interpolationMode How to fill in the heights between the contours
+     * @param siteSpacing Minimum distance between the points along a contour that are used for the triangulation. Zero
+     *                    to use every point.
+     * @param storage Where to keep the height grid
+     */
+    public HeightGenerator(final InterpolationMode interpolationMode, final int siteSpacing, final GridStorage storage) {
+        this.interpolationMode = interpolationMode;
+        this.siteSpacing = siteSpacing;
+        this.storage = storage;
+    }
 
     /**
      * Generates a grid of heights based on the contour and spot height files
@@ -40,47 +70,89 @@ public class HeightGenerator {
             return null;
         }
 
-        final ContourFileLoader contourFileLoader = new ContourFileLoader(contourFile, this::onNewContour);
-        heightGrid = new HeightGrid(contourFileLoader.getBounds());
-        contourFileLoader.processFile();
+        final String square = gridSquare.toLowerCase() + regionNumber;
+        try (StageTimings.Stage stage = StageTimings.start(square, "contours")) {
+            final ContourFileLoader contourFileLoader = new ContourFileLoader(contourFile, this::onNewContour);
+            heightGrid = new HeightGrid(contourFileLoader.getBounds(), storage);
+            contourFileLoader.processFile();
+            stage.setCells(pointCount);
+        }
 
         // Now suplement the data from the contours with the spot height data. If this has larger bounds than the contour data
         // then we'll just ignore any extra points
         final File spotHeightFile = path.resolve(gridSquare.toUpperCase() + regionNumber + "_point.shp").toFile();
         if ( spotHeightFile.exists() ) {
-            final SpotHeightFileLoader spotHeightFileLoader = new SpotHeightFileLoader(spotHeightFile, this::onNewSpotHeight);
-            spotHeightFileLoader.processFile();
+            try (StageTimings.Stage stage = StageTimings.start(square, "spot heights")) {
+                final long contourPoints = pointCount;
+                final SpotHeightFileLoader spotHeightFileLoader = new SpotHeightFileLoader(spotHeightFile, this::onNewSpotHeight);
+                spotHeightFileLoader.processFile();
+                stage.setCells(pointCount - contourPoints);
+            }
         }
 
+        final ReferencedEnvelope bounds = heightGrid.getBounds();
+        final long cells = (long) (bounds.getWidth() + 1) * (long) (bounds.getHeight() + 1);
+
         // Use triangulation to set heights between the points we have
-        setHeightFromTriangulation();
+        try (StageTimings.Stage stage = StageTimings.start(square, "triangulation", cells)) {
+            setHeightFromTriangulation();
+        }
 
         // Populate any height still empty from nearest neighbour
-        setHeightsFromNeighbour();
+        try (StageTimings.Stage stage = StageTimings.start(square, "neighbour fill", cells)) {
+            setHeightsFromNeighbour();
+        }
 
         return heightGrid;
     }
 
 
+    /**
+     * Sets the grid to interpolate without loading it from the files, eg for the benchmarks. Every cell with a height
+     * is used as a site so the site spacing must be zero.
+     */
+    void setHeightGrid(final HeightGrid heightGrid) {
+        this.heightGrid = heightGrid;
+    }
+
     /**
      * Uses triangulation on the contours and spot heights that we've loaded to set the heights on the grid
      */
-    private void setHeightFromTriangulation() {
+    void setHeightFromTriangulation() {
         final DelaunayTriangulationBuilder builder = new DelaunayTriangulationBuilder();
 
-        // Filter out the unset heights as they aren't set and so shouldn't be used for triangulation
-        final List<Coordinate> coords = new ArrayList<>();
-        heightGrid.forEach((x, y, h) -> {
-            if ( h > Integer.MIN_VALUE ) {
-                coords.add(new Coordinate(x, y, h));
-            }
-        });
+        final List<Coordinate> coords;
+        if (siteSpacing > 0) {
+            coords = thinnedSites;
+        } else {
+            // Filter out the unset heights as they aren't set and so shouldn't be used for triangulation
+            coords = new ArrayList<>();
+            heightGrid.forEach((x, y, h) -> {
+                if ( h > Integer.MIN_VALUE ) {
+                    coords.add(new Coordinate(x, y, h));
+                }
+            });
+        }
 
+        System.out.println("Triangulating " + coords.size() + " sites from " + pointCount + " contour and spot height points");
         builder.setSites(coords);
 
         final QuadEdgeSubdivision subdivision = builder.getSubdivision();
 
         // Now use the triangles to interpolate the missing grid points
+        interpolatedCount = 0;
+        if (interpolationMode == InterpolationMode.LOCATE) {
+            setHeightsByLocatingTriangles(subdivision);
+        } else {
+            setHeightsByScanningTriangles(subdivision);
+        }
+        CELLS_INTERPOLATED.add(interpolatedCount);
+    }
+
+    /**
+     * Finds the triangle containing each unset cell and interpolates the height from it
+     */
+    private void setHeightsByLocatingTriangles(final QuadEdgeSubdivision subdivision) {
         heightGrid.forEach((x, y, h) -> {
             if ( h == Integer.MIN_VALUE ) {
                 final Coordinate point =  new Coordinate(x, y);
@@ -88,51 +160,162 @@ public class HeightGenerator {
                 double interpHeight = new Vertex(point.x, point.y).interpolateZValue(edge.orig(), edge.dest(), edge.oNext().dest());
                 if ( !Double.isNaN(interpHeight)) {
                     heightGrid.setHeight(x, y, (float) interpHeight);
+                    ++interpolatedCount;
                 }
             }
         });
     }
 
+    /**
+     * Goes through each triangle and sets the unset cells inside it to the height of the plane through its corners.
+     * Cells outside all the triangles are left for the nearest neighbour fill.
+     */
+    private void setHeightsByScanningTriangles(final QuadEdgeSubdivision subdivision) {
+        final ReferencedEnvelope bounds = heightGrid.getBounds();
+        subdivision.visitTriangles(triangle -> {
+            final Vertex v0 = triangle[0].orig();
+            final Vertex v1 = triangle[1].orig();
+            final Vertex v2 = triangle[2].orig();
 
-    private void setHeightsFromNeighbour() {
-        heightGrid.forEach((x, y, h) -> {
-            if ( h == Integer.MIN_VALUE ) {
-                heightGrid.setHeight(x, y, getHeightOfNearestNeighbour(x, y));
+            // The plane is z = z0 - (nx.(x - x0) + ny.(y - y0)) / nz where n is the normal of the triangle
+            final double d1x = v1.getX() - v0.getX();
+            final double d1y = v1.getY() - v0.getY();
+            final double d1z = v1.getZ() - v0.getZ();
+            final double d2x = v2.getX() - v0.getX();
+            final double d2y = v2.getY() - v0.getY();
+            final double d2z = v2.getZ() - v0.getZ();
+            final double nz = d1x * d2y - d1y * d2x;
+            if (nz == 0) {
+                // All the corners are in a line so there's nothing inside the triangle
+                return;
             }
-        });
+            final double slopeX = -(d1y * d2z - d1z * d2y) / nz;
+            final double slopeY = -(d1z * d2x - d1x * d2z) / nz;
+
+            triangleRasterizer.rasterize(v0.getX(), v0.getY(), v1.getX(), v1.getY(), v2.getX(), v2.getY(), bounds, (y, minX, maxX) -> {
+                double height = v0.getZ() + slopeX * (minX - v0.getX()) + slopeY * (y - v0.getY());
+                for (int x = minX; x <= maxX; ++x, height += slopeX) {
+                    if (heightGrid.getHeight(x, y) == Integer.MIN_VALUE) {
+                        heightGrid.setHeight(x, y, height);
+                        ++interpolatedCount;
+                    }
+                }
+            });
+        }, false);
     }
 
-    private float getHeightOfNearestNeighbour(final int inputX, final int inputY) {
-        int distance = 1;
-        float height = Integer.MIN_VALUE;
-        while (height == Integer.MIN_VALUE) {
-            if ( heightGrid.withinBounds(inputX + distance, inputY)) {
-                height = heightGrid.getHeight(inputX + distance, inputY);
-            }
-            if ( height == Integer.MIN_VALUE && heightGrid.withinBounds(inputX - distance, inputY)) {
-                height = heightGrid.getHeight(inputX - distance, inputY);
-            }
-            if ( height == Integer.MIN_VALUE && heightGrid.withinBounds(inputX, inputY + distance)) {
-                height = heightGrid.getHeight(inputX, inputY + distance);
-            }
-            if ( height == Integer.MIN_VALUE && heightGrid.withinBounds(inputX, inputY - distance)) {
-                height = heightGrid.getHeight(inputX, inputY - distance);
+    /**
+     * Sets each cell that still doesn't have a height to the height of the nearest cell that does, measuring the
+     * distance in steps along the grid. This is a distance transform in two passes. The first goes up from the bottom
+     * left corner taking heights from the left and below, the second goes down from the top right corner taking heights
+     * from the right and above. Each cell is visited twice whatever the size of the gaps and ties always go the same
+     * way.
+     */
+    void setHeightsFromNeighbour() {
+        final ReferencedEnvelope bounds = heightGrid.getBounds();
+        final int minX = (int) bounds.getMinX();
+        final int maxX = (int) bounds.getMaxX();
+        final int minY = (int) bounds.getMinY();
+        final int maxY = (int) bounds.getMaxY();
+        final int xSize = maxX - minX + 1;
+
+        // Distance from each cell to the nearest cell with a height. Unreached cells have the max value.
+        final char[] distance = new char[xSize * (maxY - minY + 1)];
+
+        for (int y = minY, i = 0; y <= maxY; ++y) {
+            for (int x = minX; x <= maxX; ++x, ++i) {
+                if (heightGrid.getHeight(x, y) != Integer.MIN_VALUE) {
+                    distance[i] = 0;
+                    continue;
+                }
+
+                distance[i] = Character.MAX_VALUE;
+                if (x > minX) {
+                    copyIfNearer(distance, i - 1, i, x - 1, y, x, y);
+                }
+                if (y > minY) {
+                    copyIfNearer(distance, i - xSize, i, x, y - 1, x, y);
+                }
             }
+        }
+
+        int filled = 0;
+        for (int y = maxY, i = distance.length - 1; y >= minY; --y) {
+            for (int x = maxX; x >= minX; --x, --i) {
+                if (distance[i] == 0) {
+                    continue;
+                }
 
-            ++distance;
+                if (x < maxX) {
+                    copyIfNearer(distance, i + 1, i, x + 1, y, x, y);
+                }
+                if (y < maxY) {
+                    copyIfNearer(distance, i + xSize, i, x, y + 1, x, y);
+                }
+                if (distance[i] != Character.MAX_VALUE) {
+                    ++filled;
+                }
+            }
         }
 
-        return  height;
+        System.out.println("Filled " + filled + " cells from their nearest neighbour");
+        CELLS_FROM_NEIGHBOUR.add(filled);
+    }
+
+    /**
+     * If the neighbour's nearest height is closer than the cell's then copies it to the cell
+     */
+    private void copyIfNearer(final char[] distance, final int from, final int to,
+                              final int fromX, final int fromY, final int toX, final int toY) {
+        if (distance[from] != Character.MAX_VALUE && distance[from] + 1 < distance[to]) {
+            distance[to] = (char) (distance[from] + 1);
+            heightGrid.copyHeight(toX, toY, heightGrid.getHeight(fromX, fromY));
+        }
     }
 
     private void onNewContour(final Contour contour) {
         // Interpolate over the contour points to intermediate points
-        for (final Coordinate coordinate : contour.getSmoothedContour()) {
+        final Coordinate[] coordinates = contour.getSmoothedContour();
+        for (final Coordinate coordinate : coordinates) {
             heightGrid.setHeight(coordinate.x, coordinate.y, contour.getHeight());
         }
+
+        pointCount += coordinates.length;
+        if (siteSpacing > 0) {
+            addThinnedSites(coordinates);
+        }
+    }
+
+    /**
+     * Adds the points along the contour that are at least the site spacing apart. The smoothed contours have far more
+     * points than we need to triangulate as the height doesn't change along a contour. The last point is always kept
+     * so the ends of the contour are in the right place.
+     */
+    private void addThinnedSites(final Coordinate[] coordinates) {
+        Coordinate lastKept = null;
+        for (int i = 0; i < coordinates.length; ++i) {
+            final Coordinate coordinate = coordinates[i];
+            if (lastKept == null || i == coordinates.length - 1 || coordinate.distance(lastKept) >= siteSpacing) {
+                addSite(coordinate);
+                lastKept = coordinate;
+            }
+        }
+    }
+
+    private void addSite(final Coordinate coordinate) {
+        // Ignore points outside the grid in the same way as setHeight does
+        if (heightGrid.withinBounds((int) coordinate.x, (int) coordinate.y)) {
+            thinnedSites.add(coordinate);
+        }
     }
 
     private void onNewSpotHeight(final SpotHeight spotHeight) {
         heightGrid.setHeight(spotHeight.getX(), spotHeight.getY(), spotHeight.getHeight());
+
+        // Spot heights are the tops of hills and the like so we always keep them
+        ++pointCount;
+        if (siteSpacing > 0) {
+            addSite(new Coordinate(spotHeight.getX(), spotHeight.getY(), spotHeight.getHeight()));
+        }
     }
 }
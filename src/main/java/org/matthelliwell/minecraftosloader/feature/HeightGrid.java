@@ -1,97 +1,145 @@
 package org.matthelliwell.minecraftosloader.feature;
 
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
 
-import com.vividsolutions.jts.geom.Coordinate;
 import net.morbz.minecraft.world.Region;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.matthelliwell.minecraftosloader.writer.CoordConverter;
+import org.matthelliwell.minecraftosloader.writer.RegionExecutor;
 import org.matthelliwell.util.FloatArray2D;
-import org.matthelliwell.util.TriConsumer;
+import org.matthelliwell.util.FloatCellConsumer;
+import org.matthelliwell.util.GridStorage;
 
 /**
  * A grid of the heights for each coordinate. Uses offsets to address the array so can stick to the native coordinates
  * in the shape files.
  */
 public class HeightGrid {
+    // The grids are split into tiles that line up with the Minecraft regions. Map x is the same as MC x so the tiles
+    // start at zero, but map y is flipped to get MC z so the tile containing MC z = 0 to 511 is the one starting at
+    // the map y coord of MC z = 511.
+    static final int TILE_SIZE = Region.BLOCKS_PER_REGION_SIDE;
+    static final int TILE_ORIGIN_X = 0;
+    static final int TILE_ORIGIN_Y = CoordConverter.convert(Region.BLOCKS_PER_REGION_SIDE - 1);
 
     private final FloatArray2D heights;
     private float minHeight = Integer.MAX_VALUE;
     private float maxHeight = Integer.MIN_VALUE;
     final private ReferencedEnvelope bounds;
 
-    // Used to iterate through region in parallel. Note that the pool size must be < region cache size. This is becaus
-    // we assume that regions don't get kicked out the cache during processing
-    private static final int NUM_THREADS = 4;
-
-    public HeightGrid(final ReferencedEnvelope bounds) {
+    public HeightGrid(final ReferencedEnvelope bounds, final GridStorage storage) {
         // Create a new bounds so it has the same rounding as we are using in are max/min calculations
         this.bounds = new ReferencedEnvelope((int)bounds.getMinX(),
                 (int)bounds.getMaxX(),
                 (int)bounds.getMinY(),
                 (int)bounds.getMaxY(),
                 bounds.getCoordinateReferenceSystem());
-        heights = new FloatArray2D(getMaxX() - getMinX() + 1, getMaxY() - getMinY() + 1, getMinX(), getMinY());
+        heights = new FloatArray2D(getMaxX() - getMinX() + 1, getMaxY() - getMinY() + 1, getMinX(), getMinY(),
+                TILE_SIZE, TILE_ORIGIN_X, TILE_ORIGIN_Y, storage);
 
         // Sset the heights to some default value so we can tell if they've been set or not. Don't use zero
         // as zero (and small negative numbers) are valid heights
-        heights.forEach((x, y, v) -> heights.set(x, y, Integer.MIN_VALUE));
+        heights.fill(Integer.MIN_VALUE);
     }
 
-    public void forEach(TriConsumer<Integer, Integer, Float> eachCell) {
+    public void forEach(final FloatCellConsumer eachCell) {
         heights.forEach(eachCell);
     }
 
     /**
      * Iterators over each cell in the grid. We iterate region by region, rather than row by row, to reduce the
-     * amount of cache misses in the region cache.
-     * @param eachCellPass1 Function to be called for each cell
+     * amount of cache misses in the region cache. The tiles of the grid line up with the regions so each region's
+     * cells are together in memory.
+     * @param regionExecutor Runs the work for each region
+     * @param eachCellPass1 Makes the function to be called for each cell of a region
+     * @param eachCellPass2 Makes the function to be called for each cell of a region once eachCellPass1 has been
+     *                      called on every cell in the region
+     * @return How long was spent in each pass, added up over the regions
      */
-    public void forEachRegionInParallel(TriConsumer<Integer, Integer, Float> eachCellPass1, TriConsumer<Integer, Integer, Float> eachCellPass2) {
-        // Create a new exector for each call so that we can explicitly shut it down as it doesn't use daemon
-        // threads by default, otherwise the program won't exit
-        final ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
-
-        // Get the x coords of the lower left corner of first region that in the area.
-        int xstart = (getMinX() / Region.BLOCKS_PER_REGION_SIDE) * Region.BLOCKS_PER_REGION_SIDE;
-
-        // Now do same for y coord but as north/south is inverted in MC we need to look at the max y coord
-        // This will give is the max y coord in MC of this area
-        int ystart = CoordConverter.convert(getMinY());
-        // Calculate the high y/z coord in this region
-        ystart = (ystart / Region.BLOCKS_PER_REGION_SIDE) * Region.BLOCKS_PER_REGION_SIDE + Region.BLOCKS_PER_REGION_SIDE - 1;
-        // convert this back to a map y coord.
-        ystart = CoordConverter.convert(ystart);
-
-        int regionsInXDirection = Math.abs((getMaxX() - xstart) / Region.BLOCKS_PER_REGION_SIDE + 1);
-        int regionsInYDirection = Math.abs((getMaxY() - ystart) / Region.BLOCKS_PER_REGION_SIDE + 1);
-
-        // Note these loops will probably only work for positive coords
-        // I hope these loops work and never have to be touched again as I don't like the look of them
-        final List<Future> futures = new ArrayList<>(regionsInXDirection + regionsInYDirection);
-        for ( int xregion = 0; xregion < regionsInXDirection; ++xregion) {
-            for ( int yregion = 0; yregion < regionsInYDirection; ++yregion) {
-                futures.add(executor.submit(new ForEachBlockInRegion(eachCellPass1, eachCellPass2, xstart, ystart, xregion, yregion)));
+    public PassTimes forEachRegionInParallel(final RegionExecutor regionExecutor, final RegionPass eachCellPass1, final RegionPass eachCellPass2) {
+        final PassTimes times = new PassTimes();
+        final List<Future> futures = new ArrayList<>();
+        heights.forEachTile((minX, minY, maxX, maxY) -> {
+            // The max x and y are left out as they are the first cells of the next grid square
+            final int lastX = Math.min(maxX, getMaxX() - 1);
+            final int lastY = Math.min(maxY, getMaxY() - 1);
+            if (minX > lastX || minY > lastY) {
+                return;
             }
+
+            final int regionX = Math.floorDiv(minX, Region.BLOCKS_PER_REGION_SIDE);
+            final int regionZ = Math.floorDiv(CoordConverter.convert(minY), Region.BLOCKS_PER_REGION_SIDE);
+            futures.add(regionExecutor.submit(regionX, regionZ, () -> {
+                // Timed once per pass of the region so the timing doesn't add to the work done for each cell
+                final long start = System.nanoTime();
+                heights.forEachInRect(minX, minY, lastX, lastY, eachCellPass1.forRegion(regionX, regionZ));
+                final long pass1End = System.nanoTime();
+                heights.forEachInRect(minX, minY, lastX, lastY, eachCellPass2.forRegion(regionX, regionZ));
+                times.pass1Nanos.add(pass1End - start);
+                times.pass2Nanos.add(System.nanoTime() - pass1End);
+                times.cells.add((long) (lastX - minX + 1) * (lastY - minY + 1));
+            }));
+        });
+
+        waitForFuturesToFinish(futures);
+        return times;
+    }
+
+    /**
+     * Makes the function to call on each cell of a region, so anything that only depends on the region, eg the world
+     * it is written to, is looked up once per region rather than for every cell
+     */
+    public interface RegionPass {
+        /**
+         * @param regionX Region x coord, ie MC x coord / 512
+         * @param regionZ Region z coord, ie MC z coord / 512
+         */
+        FloatCellConsumer forRegion(int regionX, int regionZ);
+    }
+
+    /**
+     * The time spent in each pass of forEachRegionInParallel. The regions are done in parallel so this is the time
+     * added up over all the workers rather than the elapsed time.
+     */
+    public static class PassTimes {
+        private final LongAdder pass1Nanos = new LongAdder();
+        private final LongAdder pass2Nanos = new LongAdder();
+        private final LongAdder cells = new LongAdder();
+
+        public long getPass1Nanos() {
+            return pass1Nanos.sum();
         }
 
-        waitForFuturesToFinish(executor, futures);
+        public long getPass2Nanos() {
+            return pass2Nanos.sum();
+        }
+
+        /**
+         * How many cells each pass visited
+         */
+        public long getCells() {
+            return cells.sum();
+        }
     }
 
-    private static void waitForFuturesToFinish(final ExecutorService executor, final List<Future> futures) {
+    /**
+     * Waits for all the regions to be written. If any of them fails then so does the whole square.
+     */
+    private static void waitForFuturesToFinish(final List<Future> futures) {
         for ( Future f: futures) {
             try {
                 f.get();
-            } catch (Exception e) {
-                e.printStackTrace();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
             }
         }
-
-        executor.shutdown();
     }
 
 
@@ -106,8 +154,33 @@ public class HeightGrid {
         }
     }
 
+    /**
+     * Sets a height without checking it is inside the grid or updating the min and max height. Only for copying one
+     * height in the grid to another cell.
+     */
+    void copyHeight(final int x, final int y, final float height) {
+        heights.set(x, y, height);
+    }
+
+    /**
+     * Copies all the heights into the buffer so they can be saved
+     */
+    public void copyHeightsTo(final FloatBuffer buffer) {
+        heights.copyTo(buffer);
+    }
+
+    /**
+     * Replaces all the heights with ones saved by copyHeightsTo, reading them straight from the buffer rather than
+     * copying them. We don't save the min and max height in the buffer so they need passing in.
+     */
+    public void useHeightsFrom(final FloatBuffer buffer, final float minHeight, final float maxHeight) {
+        heights.useTilesFrom(buffer);
+        this.minHeight = minHeight;
+        this.maxHeight = maxHeight;
+    }
+
     public boolean withinBounds(final int x, final int y) {
-        return bounds.contains(new Coordinate(x, y));
+        return x >= getMinX() && x <= getMaxX() && y >= getMinY() && y <= getMaxY();
     }
 
     public float getHeight(final int x, final int y) {
@@ -149,40 +222,4 @@ public class HeightGrid {
     public float getMaxHeight() {
         return maxHeight;
     }
-
-    private class ForEachBlockInRegion implements Runnable {
-        final TriConsumer<Integer, Integer, Float> eachCellPass1;
-        final TriConsumer<Integer, Integer, Float> eachCellPass2;
-        final int xstart;
-        final int ystart;
-        final int xregion;
-        final int yregion;
-
-        public ForEachBlockInRegion(final TriConsumer<Integer, Integer, Float> eachCellPass1, final TriConsumer<Integer, Integer, Float> eachCellPass2, final int xstart, final int ystart, final int xregion, final int yregion) {
-            this.eachCellPass1 = eachCellPass1;
-            this.eachCellPass2 = eachCellPass2;
-            this.xstart = xstart;
-            this.ystart = ystart;
-            this.xregion = xregion;
-            this.yregion = yregion;
-        }
-
-        @Override
-        public void run() {
-            onEachCell(eachCellPass1);
-            onEachCell(eachCellPass2);
-        }
-
-        private void onEachCell(final TriConsumer<Integer, Integer, Float> onEachCell) {
-            for (int x = xstart + xregion * Region.BLOCKS_PER_REGION_SIDE, xcount = 0; x < getMaxX() && xcount < Region.BLOCKS_PER_REGION_SIDE; ++x, ++xcount ) {
-                for ( int y = ystart + yregion * Region.BLOCKS_PER_REGION_SIDE, ycount = 0; y < getMaxY() && ycount < Region.BLOCKS_PER_REGION_SIDE; ++y, ++ycount ) {
-                    // If we're iteratoring through a region that only partly intersects this grid then we need to skip
-                    // over the coordinates that are outside the grid
-                    if (x >= getMinX() && x <= getMaxX() && y >= getMinY() && y <= getMaxY()) {
-                        onEachCell.accept(x, y, getHeight(x, y));
-                    }
-                }
-            }
-        }
-    }
 }
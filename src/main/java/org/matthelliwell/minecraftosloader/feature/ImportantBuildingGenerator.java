@@ -4,7 +4,7 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 
-import com.vividsolutions.jts.geom.Point;
+import org.matthelliwell.minecraftosloader.file.FeatureCache;
 import org.matthelliwell.minecraftosloader.file.MultiploygonFileLoader;
 
 /**
@@ -13,23 +13,22 @@ import org.matthelliwell.minecraftosloader.file.MultiploygonFileLoader;
 public class ImportantBuildingGenerator {
 
     private final FeatureGrid featureGrid;
+    private final FeatureCache featureCache;
 
-    public ImportantBuildingGenerator(final FeatureGrid featureGrid) {
+    public ImportantBuildingGenerator(final FeatureGrid featureGrid, final FeatureCache featureCache) {
         this.featureGrid = featureGrid;
+        this.featureCache = featureCache;
 
     }
 
     public void generate(final Path path, final String gridSquare) throws IOException {
         final File file = path.resolve(gridSquare.toUpperCase() + "_ImportantBuilding.shp").toFile();
         if (file.exists()) {
-            new MultiploygonFileLoader(file, featureGrid.getBounds(), this::onNewPointInSite).processFile();
+            new MultiploygonFileLoader(file, featureGrid.getBounds(), featureCache, this::onNewSpanInSite).processFile();
         }
     }
 
-    private void onNewPointInSite(final Point p) {
-        final int x = (int)p.getX();
-        final int y = (int)p.getY();
-
-        featureGrid.setFeature(x, y, FeatureGrid.IMPORTANT_BUILDING);
+    private void onNewSpanInSite(final int y, final int minX, final int maxX) {
+        featureGrid.setFeatures(y, minX, maxX, FeatureGrid.IMPORTANT_BUILDING);
     }
 }
@@ -0,0 +1,18 @@
+package org.matthelliwell.minecraftosloader.feature;
+
+/**
+ * How the height generator fills in the heights between the contours and spot heights
+ */
+public enum InterpolationMode {
+    /**
+     * Go through the triangles of the triangulation and fill in the cells inside each one. The work is proportional
+     * to the number of cells filled in.
+     */
+    TRIANGLE_SCAN,
+
+    /**
+     * Look up the triangle containing each unset cell. Much slower as every lookup walks through the triangulation,
+     * kept so the results can be compared with the original way of doing it.
+     */
+    LOCATE
+}
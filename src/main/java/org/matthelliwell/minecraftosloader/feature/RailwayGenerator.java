@@ -3,28 +3,27 @@ package org.matthelliwell.minecraftosloader.feature;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
-import java.util.List;
 
-import com.vividsolutions.jts.geom.Coordinate;
+import org.matthelliwell.minecraftosloader.file.FeatureCache;
 import org.matthelliwell.minecraftosloader.file.MultilineStringFileLoader;
 
 public class RailwayGenerator {
     private final FeatureGrid featureGrid;
+    private final FeatureCache featureCache;
 
-    public RailwayGenerator(final FeatureGrid featureGrid) {
+    public RailwayGenerator(final FeatureGrid featureGrid, final FeatureCache featureCache) {
         this.featureGrid = featureGrid;
+        this.featureCache = featureCache;
     }
 
     public void generate(final Path path, final String gridSquare) throws IOException {
         final File file = path.resolve(gridSquare.toUpperCase() + "_RailwayTrack.shp").toFile();
         if ( file.exists()) {
-            new MultilineStringFileLoader(file, featureGrid.getBounds(), this::onNewRailway).processFile();
+            new MultilineStringFileLoader(file, featureGrid.getBounds(), featureCache, this::onNewPointInRailway).processFile();
         }
     }
 
-    private void onNewRailway(final List<Coordinate> stream) {
-        for ( final Coordinate c: stream ) {
-            featureGrid.setFeature((int)c.x, (int)c.y, FeatureGrid.RAILWAY);
-        }
+    private void onNewPointInRailway(final int x, final int y) {
+        featureGrid.setFeature(x, y, FeatureGrid.RAILWAY);
     }
 }
@@ -3,28 +3,27 @@ package org.matthelliwell.minecraftosloader.feature;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
-import java.util.List;
 
-import com.vividsolutions.jts.geom.Coordinate;
+import org.matthelliwell.minecraftosloader.file.FeatureCache;
 import org.matthelliwell.minecraftosloader.file.MultilineStringFileLoader;
 
 public class StreamGenerator {
     private final FeatureGrid featureGrid;
+    private final FeatureCache featureCache;
 
-    public StreamGenerator(final FeatureGrid featureGrid) {
+    public StreamGenerator(final FeatureGrid featureGrid, final FeatureCache featureCache) {
         this.featureGrid = featureGrid;
+        this.featureCache = featureCache;
     }
 
     public void generate(final Path path, final String gridSquare) throws IOException {
         final File file = path.resolve(gridSquare.toUpperCase() + "_SurfaceWater_Line.shp").toFile();
         if (file.exists()) {
-            new MultilineStringFileLoader(file, featureGrid.getBounds(), this::onNewStream).processFile();
+            new MultilineStringFileLoader(file, featureGrid.getBounds(), featureCache, this::onNewPointInStream).processFile();
         }
     }
 
-    private void onNewStream(final List<Coordinate> stream) {
-        for ( final Coordinate c: stream ) {
-            featureGrid.setFeature((int)c.x, (int)c.y, FeatureGrid.LAKE);
-        }
+    private void onNewPointInStream(final int x, final int y) {
+        featureGrid.setFeature(x, y, FeatureGrid.LAKE);
     }
 }
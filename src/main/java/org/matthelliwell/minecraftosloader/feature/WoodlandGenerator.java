@@ -3,8 +3,9 @@ package org.matthelliwell.minecraftosloader.feature;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
 
-import com.vividsolutions.jts.geom.Point;
+import org.matthelliwell.minecraftosloader.file.FeatureCache;
 import org.matthelliwell.minecraftosloader.file.MultiploygonFileLoader;
 
 /**
@@ -21,29 +22,30 @@ public class WoodlandGenerator {
     };
 
     private final FeatureGrid featureGrid;
+    private final FeatureCache featureCache;
 
-    public WoodlandGenerator(final FeatureGrid featureGrid) {
+    public WoodlandGenerator(final FeatureGrid featureGrid, final FeatureCache featureCache) {
         this.featureGrid = featureGrid;
+        this.featureCache = featureCache;
 
     }
 
     public void generate(final Path path, final String gridSquare) throws IOException {
         final File file = path.resolve(gridSquare.toUpperCase() + "_Woodland.shp").toFile();
         if (file.exists()) {
-            new MultiploygonFileLoader(file, featureGrid.getBounds(), this::onNewWoodland).processFile();
+            new MultiploygonFileLoader(file, featureGrid.getBounds(), featureCache, this::onNewSpanInWoodland).processFile();
         }
     }
 
-    private void onNewWoodland(final Point p) {
-        final int x = (int)p.getX();
-        final int y = (int)p.getY();
-
+    private void onNewSpanInWoodland(final int y, final int minX, final int maxX) {
         // We don't want tree at evert block so do some randomisation to try and make it look a bit pretty
-        final double random = Math.random();
-        for ( final FeatureDensity f: FEATURE_DENSITIES ) {
-            if ( random < f.density ) {
-                featureGrid.setFeature(x, y, f.feature);
-                break;
+        for ( int x = minX; x <= maxX; ++x ) {
+            final double random = ThreadLocalRandom.current().nextDouble();
+            for ( final FeatureDensity f: FEATURE_DENSITIES ) {
+                if ( random < f.density ) {
+                    featureGrid.setFeature(x, y, f.feature);
+                    break;
+                }
             }
         }
     }
@@ -0,0 +1,71 @@
+package org.matthelliwell.minecraftosloader.file;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.function.Consumer;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.opengis.feature.simple.SimpleFeature;
+
+/**
+ * Holds the features from the local data files of a national grid square in memory. The local data files cover the
+ * whole 100km square so without this every generator would read the whole file again for each of the 100 grid
+ * squares. Instead each file is read the first time it is needed and its features put into a spatial index, so each
+ * grid square only has to look at the features that overlap it.
+ */
+public class FeatureCache {
+    // The map only holds the task that loads each file. The task is run outside the map so loading a big file doesn't
+    // hold up the other threads that are using the map, and any other thread that wants the same file waits for it.
+    private final Map<File, FutureTask<STRtree>> layers = new ConcurrentHashMap<>();
+
+    /**
+     * Calls a function on each feature in the file whose bounds intersect the given bounds. The file is loaded on the
+     * first call.
+     */
+    void query(final File file, final ReferencedEnvelope bounds, final Consumer<SimpleFeature> onFeature) {
+        final STRtree layer = getLayer(file);
+        layer.query(bounds, item -> onFeature.accept((SimpleFeature) item));
+    }
+
+    /**
+     * Returns the index of the file, loading it if no other thread has. If the load fails it is dropped so the next
+     * call tries again.
+     */
+    private STRtree getLayer(final File file) {
+        final FutureTask<STRtree> task = layers.computeIfAbsent(file, key -> new FutureTask<>(() -> loadLayer(key)));
+
+        // Does nothing if another thread has already run it
+        task.run();
+
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            layers.remove(file, task);
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static STRtree loadLayer(final File file) {
+        final STRtree layer = new STRtree();
+        FileLoader.forEachFeature(file, null, feature -> {
+            final Geometry geometry = (Geometry) feature.getDefaultGeometry();
+            if (geometry != null) {
+                layer.insert(geometry.getEnvelopeInternal(), feature);
+            }
+        });
+
+        // Build it now, while we're the only thread that can see it
+        layer.build();
+        return layer;
+    }
+}
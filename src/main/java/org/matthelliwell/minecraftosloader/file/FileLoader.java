@@ -6,28 +6,44 @@ import java.util.function.Consumer;
 
 import org.geotools.data.FileDataStore;
 import org.geotools.data.FileDataStoreFinder;
+import org.geotools.data.Query;
+import org.geotools.data.shapefile.ShapefileDataStore;
+import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
 
 /**
  * Class for loading an OS file. Iterators through the features in a file and calls a function on each feature
  * it finds.
  */
 public class FileLoader {
+    private static final FilterFactory2 FILTER_FACTORY = CommonFactoryFinder.getFilterFactory2();
+
     // File we are loading
     private final File inputFile;
-    // Feture source in the file
-    private final SimpleFeatureSource featureSource;
+    // Bounds in which we are mapping. Files can cover a larger area than the region we are mapping so we only load
+    // features that intersect these bounds. If null we load all the features.
+    private final ReferencedEnvelope mapBounds;
+    // Features already loaded from the file. If null we read the file directly
+    private final FeatureCache featureCache;
     // Callback for each new feature
     private Consumer<SimpleFeature> onNewFeature;
 
 
-    FileLoader(final File file) throws IOException {
+    FileLoader(final File file) {
+        this(file, null, null);
+    }
+
+    FileLoader(final File file, final ReferencedEnvelope mapBounds, final FeatureCache featureCache) {
         this.inputFile = file;
-        final FileDataStore store = FileDataStoreFinder.getDataStore(file);
-        this.featureSource = store.getFeatureSource();
+        this.mapBounds = mapBounds;
+        this.featureCache = featureCache;
     }
 
     void setOnNewFeature(final Consumer<SimpleFeature> onNewFeature) {
@@ -35,22 +51,68 @@ public class FileLoader {
     }
 
     public void processFile() {
+        if (featureCache != null) {
+            featureCache.query(inputFile, mapBounds, onNewFeature);
+        } else {
+            forEachFeature(inputFile, mapBounds, onNewFeature);
+        }
+    }
+
+
+    ReferencedEnvelope getMapBounds() {
+        return mapBounds;
+    }
+
+    public ReferencedEnvelope getBounds() throws IOException {
+        final FileDataStore store = openDataStore(inputFile);
         try {
-            System.out.println("Processing file " + inputFile.getName());
+            return store.getFeatureSource().getBounds();
+        } finally {
+            store.dispose();
+        }
+    }
+
+    /**
+     * Reads every feature in the file that intersects the bounds, or every feature if the bounds are null
+     */
+    static void forEachFeature(final File file, final ReferencedEnvelope bounds, final Consumer<SimpleFeature> onFeature) {
+        try {
+            System.out.println("Processing file " + file.getName());
 
-            try (SimpleFeatureIterator featureIterator = featureSource.getFeatures().features()) {
+            final FileDataStore store = openDataStore(file);
+            try (SimpleFeatureIterator featureIterator = getFeatures(store, bounds).features()) {
                 while (featureIterator.hasNext()) {
                     final SimpleFeature feature = featureIterator.next();
-                    onNewFeature.accept(feature);
+                    onFeature.accept(feature);
                 }
+            } finally {
+                store.dispose();
             }
         } catch ( Exception e ) {
             throw new RuntimeException(e);
         }
     }
 
+    private static FileDataStore openDataStore(final File file) throws IOException {
+        final FileDataStore store = FileDataStoreFinder.getDataStore(file);
 
-    public ReferencedEnvelope getBounds() throws IOException {
-        return featureSource.getBounds();
+        // Let the shapefile store create the .qix spatial index if it's missing so that our bounding box queries
+        // only have to read the features near the area we are mapping
+        if (store instanceof ShapefileDataStore) {
+            ((ShapefileDataStore) store).setIndexCreationEnabled(true);
+        }
+
+        return store;
+    }
+
+    private static SimpleFeatureCollection getFeatures(final FileDataStore store, final ReferencedEnvelope bounds) throws IOException {
+        final SimpleFeatureSource featureSource = store.getFeatureSource();
+        if (bounds == null) {
+            return featureSource.getFeatures();
+        }
+
+        final SimpleFeatureType schema = featureSource.getSchema();
+        final Filter filter = FILTER_FACTORY.bbox(FILTER_FACTORY.property(schema.getGeometryDescriptor().getLocalName()), bounds);
+        return featureSource.getFeatures(new Query(schema.getTypeName(), filter));
     }
 }
@@ -1,8 +1,6 @@
 package org.matthelliwell.minecraftosloader.file;
 
-import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.MultiLineString;
-import com.vividsolutions.jts.operation.buffer.BufferParameters;
 
 public class Road {
 
@@ -21,12 +19,14 @@ public class Road {
     }
 
 
+    public MultiLineString getCentreLine() {
+        return multiLineString;
+    }
+
     /**
-     * Returns a pair of representing the road of either side of the centre line. It is returned as two geometries as
-     *  the BufferOp seems to return better looking results that way.
+     * Distance either side of the centre line covered by the road
      */
-    public Geometry getFullWidthRoad() {
-
-        return multiLineString.buffer(classification.getWidth(), BufferParameters.DEFAULT_QUADRANT_SEGMENTS, BufferParameters.CAP_ROUND);
+    public float getWidth() {
+        return classification.getWidth();
     }
 }
@@ -9,23 +9,18 @@ import com.vividsolutions.jts.geom.MultiLineString;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.opengis.feature.Property;
 import org.opengis.feature.simple.SimpleFeature;
-import org.opengis.geometry.BoundingBox;
 
 /***
  * Reads in data from the various OS files that we can handle
  */
 public class RoadFileLoader extends FileLoader {
-    // Bounds in which are mapping. Data can cover larger area than the region we are mapping so we need to filter
-    // out some of the data
-    private final ReferencedEnvelope mapBounds;
-
     private final Consumer<Road> onNewRoad;
 
     public RoadFileLoader(final File file,
                           final ReferencedEnvelope mapBounds,
+                          final FeatureCache featureCache,
                           final Consumer<Road> onNewRoad) throws IOException {
-        super(file);
-        this.mapBounds = mapBounds;
+        super(file, mapBounds, featureCache);
         setOnNewFeature(this::onNewFeature);
         this.onNewRoad = onNewRoad;
     }
@@ -37,11 +32,6 @@ public class RoadFileLoader extends FileLoader {
      */
     private void onNewFeature(final SimpleFeature feature) {
         try {
-            final BoundingBox featureBounds = feature.getBounds().toBounds(mapBounds.getCoordinateReferenceSystem());
-            if (!featureBounds.intersects(mapBounds)) {
-                return;
-            }
-
             final Road road = new Road();
 
             final Collection<? extends Property> properties = feature.getValue();
@@ -6,11 +6,24 @@ import net.morbz.minecraft.world.Region;
 
 import java.awt.*;
 import java.io.IOException;
-import java.net.URI;
-import java.nio.file.*;
-import java.util.HashSet;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
 
 /**
  * I can't fit all the region files on my local disk so need a strategy for achiving them to zips. This runs
@@ -19,26 +32,34 @@ import java.util.Set;
  */
 public class Archiver {
     public static void main(String[] argv) {
-        if ( argv.length != 2) {
-            System.out.println("Usage org.matthelliwell.minecraftosloader.writer.Archive <world name> <grid square>");
+        if ( argv.length < 2) {
+            System.out.println("Usage org.matthelliwell.minecraftosloader.writer.Archive <world name> <grid square> [--threads=<n>] [--level=<0-9>]");
             System.out.println("eg org.matthelliwell.minecraftosloader.writer.Archive UK HP");
             System.out.println("or org.matthelliwell.minecraftosloader.writer.Archive UK all");
+            System.out.println("Threads is how many zips to build at once, default is the number of cores. Level is the deflate");
+            System.out.println("level, default 6.");
             return;
         }
 
-        if (argv[1].equals("all")) {
-            Set<String> squares = bounds.keySet();
-            final Archiver a = new Archiver();
-            for (final String s : squares) {
-                a.zipRegionFiles(argv[0] + " - Matt Helliwell", s);
-            }
-        } else {
-            final String[] squares = argv[1].split(",");
-            final Archiver a = new Archiver();
-            for (final String s : squares) {
-                a.zipRegionFiles(argv[0] + " - Matt Helliwell", s);
+        int threads = Runtime.getRuntime().availableProcessors();
+        int level = Deflater.DEFAULT_COMPRESSION;
+        for (int i = 2; i < argv.length; ++i) {
+            final String[] nameAndValue = argv[i].split("=", 2);
+            final String value = nameAndValue.length > 1 ? nameAndValue[1] : "";
+            switch (nameAndValue[0]) {
+                case "--threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                case "--level":
+                    level = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + argv[i]);
             }
         }
+
+        final Collection<String> squares = argv[1].equals("all") ? bounds.keySet() : Arrays.asList(argv[1].split(","));
+        new Archiver(level).zipRegionFiles(argv[0] + " - Matt Helliwell", squares, threads);
     }
 
     // This is the lower left coords of each grid square. We could derive them from OS data but as they aren't about
@@ -114,9 +135,53 @@ public class Archiver {
 
     private final int LENGTH = 100_000;
 
+    private final int compressionLevel;
+
+    /**
+     * @param compressionLevel Deflate level for the zips, 0-9 or Deflater.DEFAULT_COMPRESSION
+     */
+    public Archiver(final int compressionLevel) {
+        if (compressionLevel != Deflater.DEFAULT_COMPRESSION && (compressionLevel < 0 || compressionLevel > 9)) {
+            throw new IllegalArgumentException("Compression level must be 0-9, got " + compressionLevel);
+        }
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Builds the zips for the squares, several at once. Each square only reads its own region files and writes its own
+     * zip so they don't get in each other's way.
+     */
+    private void zipRegionFiles(final String levelName, final Collection<String> gridSquares, final int threads) {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (final String gridSquare : gridSquares) {
+                futures.add(executor.submit(() -> zipRegionFiles(levelName, gridSquare.trim())));
+            }
+
+            for (final Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     /**
      * For all minecraft regions contained in specified square, add the region to a zip file.
-     * We include the level.dat file in each zip so that they can be played independently
+     * We include the level.dat file in each zip so that they can be played independently.
+     *
+     * Only the region files that are new or have a different size or modified time to their entry in the zip are
+     * compressed. Everything else in the zip, including the regions whose files have been deleted since they were
+     * archived, is copied across from the old zip without being compressed again. The zip is skipped if nothing has
+     * changed. Otherwise the new one is written to a temporary file and moved into place, so an archive that is being
+     * updated is never left half written. The temporary file is deleted if the update fails.
      */
     private void zipRegionFiles(final String levelName, final String gridSquare) {
         try {
@@ -126,55 +191,104 @@ public class Archiver {
                 return;
             }
 
-            System.out.println("Archiving square " + gridSquare);
-
-            final Set<String> regionFilesInZip = new HashSet<>();
             final FileManager fileManager = new FileManager(levelName, true);
-            final FileSystem zipFile = getZipFile(fileManager, levelName, gridSquare);
 
-            // Iterate over the OS grid square and get the region file at each point. Copy the region file
-            // into the zip.
+            // Iterate over the OS grid square and get the region file at each point
+            final Map<String, Path> files = new LinkedHashMap<>();
             for (int x = lowerLeft.x; x <= lowerLeft.x + LENGTH; x += Region.BLOCKS_PER_REGION_SIDE - 20) {
                 for (int y = lowerLeft.y; y <= lowerLeft.y + LENGTH; y += Region.BLOCKS_PER_REGION_SIDE - 20) {
                     final Path regionFile = fileManager.getRegionFileForBlock(x, CoordConverter.convert(y));
-                    if (Files.exists(regionFile) && !regionFilesInZip.contains(regionFile.getFileName().toString())) {
-                        copyRegionFileToZip(zipFile, levelName, regionFile);
-                        regionFilesInZip.add(regionFile.getFileName().toString());
+                    if (Files.exists(regionFile)) {
+                        files.put(levelName + "/region/" + regionFile.getFileName().toString(), regionFile);
                     }
                 }
             }
 
             // Include the level file in every zip so they are independently playable
-            addLevelFileToZip(fileManager, levelName, zipFile);
+            files.put(levelName + "/level.dat", fileManager.getLevelDir().resolve("level.dat"));
 
-            zipFile.close();
+            final Path zipFilePath = fileManager.getWorldDir().resolve(gridSquare + ".zip");
+            final Path tempFilePath = zipFilePath.resolveSibling(gridSquare + ".zip.tmp");
+            try {
+                try (FileChannel oldZip = Files.exists(zipFilePath) ? FileChannel.open(zipFilePath, StandardOpenOption.READ) : null) {
+                    if (!updateZip(oldZip, tempFilePath, levelName, files)) {
+                        System.out.println("Skipping square " + gridSquare + " as its region files haven't changed");
+                        return;
+                    }
+                }
+
+                moveIntoPlace(tempFilePath, zipFilePath);
+                System.out.println("Archived square " + gridSquare);
+            } catch (IOException | RuntimeException e) {
+                // Don't leave a half written archive lying around
+                Files.deleteIfExists(tempFilePath);
+                throw e;
+            }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
-    private void addLevelFileToZip(final FileManager fileManager, final String levelName, final FileSystem zipFile) throws IOException {
-        final Path pathInZipfile = zipFile.getPath("/" + levelName + "/level.dat");
-        Files.copy(fileManager.getLevelDir().resolve("level.dat") , pathInZipfile, StandardCopyOption.REPLACE_EXISTING );
-    }
-
-    private void copyRegionFileToZip(final FileSystem zipFile, final String levelName, final Path regionFile) throws IOException {
-        final Path pathInZipfile = zipFile.getPath("/" + levelName + "/region/" + regionFile.getFileName().toString());
-        Files.copy(regionFile, pathInZipfile, StandardCopyOption.REPLACE_EXISTING);
-    }
+    /**
+     * Writes the old zip, if there is one, with the changed files in it to the temporary file. Returns false without
+     * writing anything if none of the files have changed.
+     * @param files The files that should be in the zip by their entry name
+     */
+    private boolean updateZip(final FileChannel oldZip, final Path tempFilePath, final String levelName, final Map<String, Path> files) throws IOException {
+        final Map<String, ZipArchive.Entry> oldEntries = new LinkedHashMap<>();
+        if (oldZip != null) {
+            for (final ZipArchive.Entry entry : ZipArchive.readEntries(oldZip)) {
+                oldEntries.put(entry.name, entry);
+            }
+        }
 
-    private FileSystem getZipFile(final FileManager fileManager, final String levelName, final String gridSquare) throws IOException {
-        final Path zipFilePath = fileManager.getWorldDir().resolve(gridSquare + ".zip");
-        Map<String, Object> env = ImmutableMap.of("create", "true", "useTempFile", Boolean.TRUE);
-        final URI uri = URI.create("jar:" + zipFilePath.toUri());
+        final Map<String, Path> changedFiles = new LinkedHashMap<>();
+        for (final Map.Entry<String, Path> file : files.entrySet()) {
+            if (!isUpToDate(oldEntries.get(file.getKey()), file.getValue())) {
+                changedFiles.put(file.getKey(), file.getValue());
+            }
+        }
+        if (changedFiles.isEmpty()) {
+            return false;
+        }
 
-        final FileSystem zipFile = FileSystems.newFileSystem(uri, env);
+        try (ZipArchive.Writer newZip = new ZipArchive.Writer(tempFilePath, compressionLevel)) {
+            final String regionDirectory = levelName + "/region/";
+            if (!oldEntries.containsKey(regionDirectory)) {
+                newZip.addDirectory(regionDirectory);
+            }
+            for (final ZipArchive.Entry entry : oldEntries.values()) {
+                if (!changedFiles.containsKey(entry.name)) {
+                    newZip.copy(oldZip, entry);
+                }
+            }
+            for (final Map.Entry<String, Path> file : changedFiles.entrySet()) {
+                newZip.add(file.getKey(), file.getValue());
+            }
+            newZip.finish();
+        }
+        return true;
+    }
 
+    /**
+     * Replaces the archive with the new one. Some file systems can't do this atomically, in which case we make do with
+     * an ordinary move.
+     */
+    private static void moveIntoPlace(final Path tempFilePath, final Path zipFilePath) throws IOException {
         try {
-            Files.createDirectories(zipFile.getPath("/" + levelName + "/region"));
-        } catch (FileAlreadyExistsException e) {
-            // ignore
+            Files.move(tempFilePath, zipFilePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFilePath, zipFilePath, StandardCopyOption.REPLACE_EXISTING);
         }
-        return zipFile;
+    }
+
+    /**
+     * Checks whether the entry has the file's current size and modified time. Zips only hold the time to the nearest
+     * second so that's all we compare.
+     */
+    private static boolean isUpToDate(final ZipArchive.Entry entry, final Path file) throws IOException {
+        return entry != null
+                && entry.size == Files.size(file)
+                && entry.lastModifiedSeconds == Files.getLastModifiedTime(file).to(TimeUnit.SECONDS);
     }
 }
@@ -0,0 +1,115 @@
+package org.matthelliwell.minecraftosloader.writer;
+
+import net.morbz.minecraft.blocks.FlowerBlock;
+import net.morbz.minecraft.blocks.IBlock;
+import net.morbz.minecraft.blocks.SandBlock;
+import net.morbz.minecraft.blocks.SandstoneBlock;
+import net.morbz.minecraft.blocks.SaplingBlock;
+import net.morbz.minecraft.blocks.SimpleBlock;
+import net.morbz.minecraft.blocks.StainedBlock;
+import org.matthelliwell.minecraftosloader.feature.FeatureGrid;
+
+/**
+ * The blocks for a column of the world. Every column is bedrock, then cobblestone up to the surface and then a cap that
+ * depends on the feature. Apart from railways the blocks only depend on the feature and the height, so we build an
+ * array for each feature and height once and hand the same array to the world for every column that matches it. The
+ * world copies the blocks into its chunks so the arrays must never be changed.
+ */
+class ColumnTemplates {
+    // Heights are scaled to no more than this, see HeightScaler
+    private static final int MAX_HEIGHT = 240;
+
+    private static final IBlock ROAD = new StainedBlock(StainedBlock.StainedMaterial.CLAY, StainedBlock.StainedColor.GRAY);
+
+    // The blocks on top of the cobblestone for each feature. The railway cap ends with a space for the rail, which
+    // depends on the neighbouring cells.
+    private static final IBlock[][] CAPS = new IBlock[256][];
+    static {
+        CAPS[FeatureGrid.GRASS] = new IBlock[] {SimpleBlock.GRASS};
+        CAPS[FeatureGrid.OAK] = new IBlock[] {SimpleBlock.GRASS, SaplingBlock.OAK_SAPLING};
+        CAPS[FeatureGrid.BIRCH] = new IBlock[] {SimpleBlock.GRASS, SaplingBlock.BIRCH_SAPLING};
+        CAPS[FeatureGrid.DANELION] = new IBlock[] {SimpleBlock.GRASS, FlowerBlock.DANDELION};
+        CAPS[FeatureGrid.POPPY] = new IBlock[] {SimpleBlock.GRASS, FlowerBlock.POPPY};
+        CAPS[FeatureGrid.OXEYE_DAISY] = new IBlock[] {SimpleBlock.GRASS, FlowerBlock.OXEYE_DAISY};
+        CAPS[FeatureGrid.LAKE] = new IBlock[] {SimpleBlock.WATER};
+        // We don't know how high building are so we'll just do them a few blocks high in a uniform colour
+        // on a cobblestone foundation
+        CAPS[FeatureGrid.BUILDING] = new IBlock[] {
+                SimpleBlock.COBBLESTONE,
+                SimpleBlock.BRICK_BLOCK,
+                SimpleBlock.BRICK_BLOCK,
+                SimpleBlock.BRICK_BLOCK,
+                SimpleBlock.BRICK_BLOCK,
+                SimpleBlock.HARDENED_CLAY};
+        // Pave the site in cobblestones
+        CAPS[FeatureGrid.FUNCTIONAL_SITE] = new IBlock[] {SimpleBlock.COBBLESTONE};
+        // Build these in sandstone and higher than normal buildings
+        CAPS[FeatureGrid.IMPORTANT_BUILDING] = new IBlock[] {
+                SimpleBlock.COBBLESTONE,
+                SandstoneBlock.CHISELED,
+                SandstoneBlock.CHISELED,
+                SandstoneBlock.CHISELED,
+                SandstoneBlock.CHISELED,
+                SandstoneBlock.CHISELED,
+                SandstoneBlock.CHISELED,
+                SandstoneBlock.CHISELED,
+                SandstoneBlock.SMOOTH};
+        // Pave the site in clay
+        CAPS[FeatureGrid.ROAD] = new IBlock[] {ROAD};
+        CAPS[FeatureGrid.GLASSHOUSE] = new IBlock[] {
+                SimpleBlock.COBBLESTONE,
+                SimpleBlock.GLASS,
+                SimpleBlock.GLASS,
+                SimpleBlock.GLASS};
+        CAPS[FeatureGrid.TIDAL_WATER] = new IBlock[] {SimpleBlock.WATER};
+        CAPS[FeatureGrid.FORESHORE] = new IBlock[] {SandBlock.SAND};
+        CAPS[FeatureGrid.RAILWAY] = new IBlock[] {SimpleBlock.GRAVEL, null};
+    }
+
+    // Columns for each feature and height, null for features we don't know about
+    private static final IBlock[][][] COLUMNS = new IBlock[256][][];
+    static {
+        for (int feature = 0; feature < CAPS.length; ++feature) {
+            if (CAPS[feature] != null) {
+                COLUMNS[feature] = new IBlock[MAX_HEIGHT + 1][];
+                for (int height = 1; height <= MAX_HEIGHT; ++height) {
+                    COLUMNS[feature][height] = buildColumn(height, CAPS[feature]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the blocks for a column with the surface at the given height. Don't change the array. For railways the
+     * last block is left empty for the caller to fill in on a copy. Returns null if we don't know the feature.
+     */
+    static IBlock[] getColumn(final byte feature, final int height) {
+        final IBlock[][] columns = COLUMNS[feature & 0xFF];
+        if (columns == null) {
+            return null;
+        }
+
+        if (height > MAX_HEIGHT) {
+            return buildColumn(height, CAPS[feature & 0xFF]);
+        }
+        return columns[height];
+    }
+
+    /**
+     * Returns the blocks for a column without any cap
+     */
+    static IBlock[] getBareColumn(final int height) {
+        return buildColumn(height, new IBlock[0]);
+    }
+
+    private static IBlock[] buildColumn(final int height, final IBlock[] cap) {
+        final IBlock[] blocks = new IBlock[height + cap.length];
+        blocks[0] = SimpleBlock.BEDROCK;
+        for (int h = 1; h < height; ++h) {
+            blocks[h] = SimpleBlock.COBBLESTONE;
+        }
+        System.arraycopy(cap, 0, blocks, height, cap.length);
+
+        return blocks;
+    }
+}
@@ -0,0 +1,50 @@
+package org.matthelliwell.minecraftosloader.writer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Records which grid squares have been written and saved, so that a run that falls over can be restarted without
+ * redoing them. Each line of the file is a national grid square, a grid square number and the signature of the input
+ * files it was generated from. A square only counts as done if its input files haven't changed since.
+ */
+class CompletionManifest {
+    private final Path file;
+    private final Map<String, String> completed = new HashMap<>();
+
+    CompletionManifest(final Path file) throws IOException {
+        this.file = file;
+
+        if (Files.exists(file)) {
+            for (final String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                final String[] fields = line.split(" ", 3);
+                if (fields.length == 3) {
+                    completed.put(key(fields[0], fields[1]), fields[2]);
+                }
+            }
+        }
+    }
+
+    synchronized boolean isComplete(final String nationalGridReferenceSquare, final String gridSquareNumber, final String signature) {
+        return signature.equals(completed.get(key(nationalGridReferenceSquare, gridSquareNumber)));
+    }
+
+    /**
+     * Adds the square to the manifest. Only call this once the blocks for the square have been saved.
+     */
+    synchronized void markComplete(final String nationalGridReferenceSquare, final String gridSquareNumber, final String signature) throws IOException {
+        final String line = nationalGridReferenceSquare + " " + gridSquareNumber + " " + signature;
+        Files.write(file, Collections.singletonList(line), StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        completed.put(key(nationalGridReferenceSquare, gridSquareNumber), signature);
+    }
+
+    private static String key(final String nationalGridReferenceSquare, final String gridSquareNumber) {
+        return nationalGridReferenceSquare.toLowerCase() + " " + gridSquareNumber;
+    }
+}
@@ -2,17 +2,17 @@ package org.matthelliwell.minecraftosloader.writer;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
 
-import net.morbz.minecraft.blocks.FlowerBlock;
 import net.morbz.minecraft.blocks.IBlock;
-import net.morbz.minecraft.blocks.SandBlock;
-import net.morbz.minecraft.blocks.SandstoneBlock;
-import net.morbz.minecraft.blocks.SaplingBlock;
-import net.morbz.minecraft.blocks.SimpleBlock;
-import net.morbz.minecraft.blocks.StainedBlock;
 import net.morbz.minecraft.world.World;
+import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.matthelliwell.minecraftosloader.feature.BuildingGenerator;
 import org.matthelliwell.minecraftosloader.feature.FeatureGrid;
 import org.matthelliwell.minecraftosloader.feature.ForeshoreGenerator;
@@ -27,149 +27,224 @@ import org.matthelliwell.minecraftosloader.feature.RoadGenerator;
 import org.matthelliwell.minecraftosloader.feature.StreamGenerator;
 import org.matthelliwell.minecraftosloader.feature.TidalWaterGenerator;
 import org.matthelliwell.minecraftosloader.feature.WoodlandGenerator;
+import org.matthelliwell.minecraftosloader.file.FeatureCache;
+import org.matthelliwell.util.Counters;
+import org.matthelliwell.util.StageTimings;
 
 /**
  * Writes the data for a 10x10km square within a national grid square
  */
 class GridSquareWriter {
+    private static final LongAdder COLUMNS_WRITTEN = Counters.get("columns written");
+    private static final LongAdder BLOCKS_WRITTEN = Counters.get("blocks written");
+
+    // The feature layers from lowest to highest priority. Where features overlap the one in the highest layer wins, eg
+    // buildings are above functional sites as buildings may be inside them, and railways are above everything.
+    private static final Layer[] LAYERS_BY_PRIORITY = {
+            new Layer("functional sites", (layer, cache, path, square) -> new FunctionalSiteGenerator(layer, cache).generate(path, square)),
+            new Layer("roads", (layer, cache, path, square) -> new RoadGenerator(layer, cache).generate(path, square)),
+            new Layer("important buildings", (layer, cache, path, square) -> new ImportantBuildingGenerator(layer, cache).generate(path, square)),
+            new Layer("buildings", (layer, cache, path, square) -> new BuildingGenerator(layer, cache).generate(path, square)),
+            new Layer("woodland", (layer, cache, path, square) -> new WoodlandGenerator(layer, cache).generate(path, square)),
+            new Layer("lakes", (layer, cache, path, square) -> new LakeGenerator(layer, cache).generate(path, square)),
+            new Layer("streams", (layer, cache, path, square) -> new StreamGenerator(layer, cache).generate(path, square)),
+            new Layer("glasshouses", (layer, cache, path, square) -> new GlassHouseGenerator(layer, cache).generate(path, square)),
+            new Layer("tidal water", (layer, cache, path, square) -> new TidalWaterGenerator(layer, cache).generate(path, square)),
+            new Layer("foreshore", (layer, cache, path, square) -> new ForeshoreGenerator(layer, cache).generate(path, square)),
+            new Layer("railways", (layer, cache, path, square) -> new RailwayGenerator(layer, cache).generate(path, square))
+    };
+
     private final RailwayWriter railwayWriter = new RailwayWriter();
+    private final RunOptions options;
+    private final ExecutorService layerExecutor;
+
+    /**
+     * @param layerExecutor Runs the feature generators
+     */
+    GridSquareWriter(final RunOptions options, final ExecutorService layerExecutor) {
+        this.options = options;
+        this.layerExecutor = layerExecutor;
+    }
 
-    public void write(final World world,
+    public void write(final RegionWorlds worlds,
+                      final RegionExecutor regionExecutor,
                       final Path localDataPath,
                       final Path terrainDataPath,
                       final String nationalGridReferenceSquare,
                       final String gridSquareNumber,
-                      final long[] blockCount) throws IOException {
+                      final FeatureCache featureCache,
+                      final GridStore gridStore) throws IOException {
 
         System.out.println("Writing square " + nationalGridReferenceSquare + " " + gridSquareNumber);
-        // Process the heigh related features as we need the height grid before we can do much else
-        final HeightGrid heightGrid = new HeightGenerator().generate(terrainDataPath, nationalGridReferenceSquare, gridSquareNumber);
-        if ( heightGrid == null ) {
-            return;
+        final String square = nationalGridReferenceSquare + gridSquareNumber;
+
+        // The grids only depend on the input files so if they've been saved by an earlier run we can use them
+        GridStore.Grids grids = null;
+        String signature = null;
+        if (gridStore != null) {
+            signature = SquareInputs.signature(terrainDataPath, localDataPath, nationalGridReferenceSquare, gridSquareNumber)
+                    + " " + options.describeGridOptions();
+            try (StageTimings.Stage stage = StageTimings.start(square, "load grids")) {
+                grids = gridStore.load(nationalGridReferenceSquare, gridSquareNumber, signature);
+            }
         }
 
-        // Create the feature grid into which we'll do the features on the terrain
-        final FeatureGrid featureGrid = new FeatureGrid(heightGrid.getBounds());
-
-        // Load functional sites before buildings as building may be inside these so don't want to overwrite the building
-        new FunctionalSiteGenerator(featureGrid).generate(localDataPath, nationalGridReferenceSquare);
-
-        new RoadGenerator(featureGrid).generate(localDataPath, nationalGridReferenceSquare);
-        new ImportantBuildingGenerator(featureGrid).generate(localDataPath, nationalGridReferenceSquare);
-        new BuildingGenerator(featureGrid).generate(localDataPath, nationalGridReferenceSquare);
-        new WoodlandGenerator(featureGrid).generate(localDataPath, nationalGridReferenceSquare);
-        new LakeGenerator(featureGrid).generate(localDataPath, nationalGridReferenceSquare);
-        new StreamGenerator(featureGrid).generate(localDataPath, nationalGridReferenceSquare);
-        new GlassHouseGenerator(featureGrid).generate(localDataPath, nationalGridReferenceSquare);
-        new TidalWaterGenerator(featureGrid).generate(localDataPath, nationalGridReferenceSquare);
-        new ForeshoreGenerator(featureGrid).generate(localDataPath, nationalGridReferenceSquare);
-        new RailwayGenerator(featureGrid).generate(localDataPath, nationalGridReferenceSquare);
+        if (grids == null) {
+            grids = generateGrids(localDataPath, terrainDataPath, nationalGridReferenceSquare, gridSquareNumber, featureCache);
+            if (grids == null) {
+                return;
+            }
+            if (gridStore != null) {
+                try (StageTimings.Stage stage = StageTimings.start(square, "save grids", cellCount(grids.heightGrid))) {
+                    gridStore.save(nationalGridReferenceSquare, gridSquareNumber, signature, grids);
+                }
+            }
+        }
 
-        final HeightScaler scaler = new HeightScaler(heightGrid.getMinHeight(), heightGrid.getMaxHeight());
+        final HeightGrid heightGrid = grids.heightGrid;
+        final FeatureGrid featureGrid = grids.featureGrid;
 
-        heightGrid.forEachRegionInParallel((x, y, h) -> {
-                    final int scaledHeight = Math.round(scaler.scale(h));
-                    if (scaledHeight > 0) {
-                        final List<IBlock> blocks = setBlocksForColumn(x, y, scaledHeight, featureGrid, heightGrid, blockCount);
+        final HeightScaler scaler = new HeightScaler(heightGrid.getMinHeight(), heightGrid.getMaxHeight());
 
-                        world.setBlocks(x, CoordConverter.convert(y), blocks.toArray(new IBlock[blocks.size()]));
-                    }
+        final HeightGrid.PassTimes times = heightGrid.forEachRegionInParallel(regionExecutor, (regionX, regionZ) -> {
+                    final World world = worlds.get(regionX, regionZ);
+                    return (x, y, h) -> {
+                        final int scaledHeight = Math.round(scaler.scale(h));
+                        if (scaledHeight > 0) {
+                            world.setBlocks(x, CoordConverter.convert(y), getBlocksForColumn(x, y, scaledHeight, featureGrid, heightGrid));
+                        }
+                    };
                 },
-                (x, y, h) -> world.calculateSkylight(x, CoordConverter.convert(y)));
+                (regionX, regionZ) -> {
+                    final World world = worlds.get(regionX, regionZ);
+                    return (x, y, h) -> world.calculateSkylight(x, CoordConverter.convert(y));
+                });
+
+        // The regions are written in parallel so these are the times added up over the region workers
+        StageTimings.record(square, "block write", times.getPass1Nanos(), times.getCells(), -1);
+        StageTimings.record(square, "skylight", times.getPass2Nanos(), times.getCells(), -1);
 
         System.out.println("Scaling height by " + scaler.getScale() * 100 + "%");
     }
 
-    private List<IBlock> setBlocksForColumn(final int x, final int y, final int height, final FeatureGrid featureGrid, final HeightGrid heightGrid, final long[] blockCount) {
-        final List<IBlock> blocks = new ArrayList<>(height + 2);
-        blocks.add(SimpleBlock.BEDROCK);
+    /**
+     * Works out the height and feature of each cell from the input files. Returns null if there is no terrain data
+     * for the square.
+     */
+    private GridStore.Grids generateGrids(final Path localDataPath,
+                                          final Path terrainDataPath,
+                                          final String nationalGridReferenceSquare,
+                                          final String gridSquareNumber,
+                                          final FeatureCache featureCache) throws IOException {
+        // Process the heigh related features as we need the height grid before we can do much else
+        final HeightGrid heightGrid = new HeightGenerator(options.getInterpolationMode(), options.getSiteSpacing(), options.getGridStorage()).generate(terrainDataPath, nationalGridReferenceSquare, gridSquareNumber);
+        if ( heightGrid == null ) {
+            return null;
+        }
 
-        for ( int h = 1; h < height; ++h ) {
-            blocks.add(SimpleBlock.COBBLESTONE);
+        // Create the feature grid into which we'll do the features on the terrain
+        final FeatureGrid featureGrid = new FeatureGrid(heightGrid.getBounds(), options.getGridStorage());
+        final String square = nationalGridReferenceSquare + gridSquareNumber;
+        final long cells = cellCount(heightGrid);
+
+        // Each generator draws into its own layer so they can all run at the same time. The layers only allocate the
+        // tiles they draw in.
+        final FeatureGrid[] layers = new FeatureGrid[LAYERS_BY_PRIORITY.length];
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < LAYERS_BY_PRIORITY.length; ++i) {
+            final Layer layer = LAYERS_BY_PRIORITY[i];
+            final FeatureGrid layerGrid = new FeatureGrid(heightGrid.getBounds(), options.getGridStorage());
+            layers[i] = layerGrid;
+            futures.add(layerExecutor.submit(() -> {
+                try (StageTimings.Stage stage = StageTimings.start(square, layer.name)) {
+                    layer.generator.generate(layerGrid, featureCache, localDataPath, nationalGridReferenceSquare);
+                    stage.setCells(layerGrid.getCellsSet());
+                }
+                return null;
+            }));
+        }
+        waitForLayersToFinish(futures);
+
+        // Count what each layer drew, over the whole run and for this square
+        final NumberFormat format = NumberFormat.getInstance();
+        final StringBuilder cellsSet = new StringBuilder("Cells set in " + square + " by");
+        for (int i = 0; i < LAYERS_BY_PRIORITY.length; ++i) {
+            final long layerCellsSet = layers[i].getCellsSet();
+            LAYERS_BY_PRIORITY[i].cellsSet.add(layerCellsSet);
+            cellsSet.append(i == 0 ? " " : ", ").append(LAYERS_BY_PRIORITY[i].name).append(' ').append(format.format(layerCellsSet));
         }
+        System.out.println(cellsSet);
 
-        switch ( featureGrid.getFeature(x, y) ) {
-            case FeatureGrid.GRASS:
-                blocks.add(SimpleBlock.GRASS);
-                break;
-            case FeatureGrid.OAK:
-                blocks.add(SimpleBlock.GRASS);
-                blocks.add(SaplingBlock.OAK_SAPLING);
-                break;
-            case FeatureGrid.BIRCH:
-                blocks.add(SimpleBlock.GRASS);
-                blocks.add(SaplingBlock.BIRCH_SAPLING);
-                break;
-            case FeatureGrid.DANELION:
-                blocks.add(SimpleBlock.GRASS);
-                blocks.add(FlowerBlock.DANDELION);
-                break;
-            case FeatureGrid.POPPY:
-                blocks.add(SimpleBlock.GRASS);
-                blocks.add(FlowerBlock.POPPY);
-                break;
-            case FeatureGrid.OXEYE_DAISY:
-                blocks.add(SimpleBlock.GRASS);
-                blocks.add(FlowerBlock.OXEYE_DAISY);
-                break;
-            case FeatureGrid.LAKE:
-                blocks.add(SimpleBlock.WATER);
-                break;
-            case FeatureGrid.BUILDING:
-                // We don't know how high building are so we'll just do them a few blocks high in a uniform colour
-                // on a cobblestone foundation
-                blocks.add(SimpleBlock.COBBLESTONE);
-                blocks.add(SimpleBlock.BRICK_BLOCK);
-                blocks.add(SimpleBlock.BRICK_BLOCK);
-                blocks.add(SimpleBlock.BRICK_BLOCK);
-                blocks.add(SimpleBlock.BRICK_BLOCK);
-                blocks.add(SimpleBlock.HARDENED_CLAY);
-                break;
-            case FeatureGrid.FUNCTIONAL_SITE:
-                // Pave the site in cobblestones
-                blocks.add(SimpleBlock.COBBLESTONE);
-                break;
-            case FeatureGrid.IMPORTANT_BUILDING:
-                // Build these in sandstone and higher than normal buildings
-                blocks.add(SimpleBlock.COBBLESTONE);
-                blocks.add(SandstoneBlock.CHISELED);
-                blocks.add(SandstoneBlock.CHISELED);
-                blocks.add(SandstoneBlock.CHISELED);
-                blocks.add(SandstoneBlock.CHISELED);
-                blocks.add(SandstoneBlock.CHISELED);
-                blocks.add(SandstoneBlock.CHISELED);
-                blocks.add(SandstoneBlock.CHISELED);
-                blocks.add(SandstoneBlock.SMOOTH);
-                break;
-            case FeatureGrid.ROAD:
-                // Pave the site in clay
-                blocks.add(new StainedBlock(StainedBlock.StainedMaterial.CLAY, StainedBlock.StainedColor.GRAY));
-                break;
-            case FeatureGrid.GLASSHOUSE:
-                blocks.add(SimpleBlock.COBBLESTONE);
-                blocks.add(SimpleBlock.GLASS);
-                blocks.add(SimpleBlock.GLASS);
-                blocks.add(SimpleBlock.GLASS);
-                break;
-            case FeatureGrid.TIDAL_WATER:
-                blocks.add(SimpleBlock.WATER);
-                break;
-            case FeatureGrid.FORESHORE:
-                blocks.add(SandBlock.SAND);
-                break;
-            case FeatureGrid.RAILWAY:
-                blocks.add(SimpleBlock.GRAVEL);
-                blocks.add(railwayWriter.write(x, y, featureGrid, heightGrid));
-                break;
-            default:
-                System.out.println("Unknown feature " + featureGrid.getFeature(x, y));
-                break;
+        try (StageTimings.Stage stage = StageTimings.start(square, "composite", cells)) {
+            for (final FeatureGrid layer : layers) {
+                featureGrid.overlay(layer);
+            }
+        }
+
+        return new GridStore.Grids(heightGrid, featureGrid);
+    }
 
+    /**
+     * Waits for all the layers to be drawn. If any of them fails we give up on the square.
+     */
+    private static void waitForLayersToFinish(final List<Future<?>> futures) throws IOException {
+        for (final Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            }
         }
+    }
 
-        blockCount[0] += blocks.size();
+    private static long cellCount(final HeightGrid heightGrid) {
+        final ReferencedEnvelope bounds = heightGrid.getBounds();
+        return (long) (bounds.getWidth() + 1) * (long) (bounds.getHeight() + 1);
+    }
+
+    /**
+     * Returns the blocks for a column of the given height and counts them. Not private so the benchmarks can call it.
+     */
+    IBlock[] getBlocksForColumn(final int x, final int y, final int height, final FeatureGrid featureGrid, final HeightGrid heightGrid) {
+        final byte feature = featureGrid.getFeature(x, y);
+        IBlock[] blocks = ColumnTemplates.getColumn(feature, height);
+        if (blocks == null) {
+            System.out.println("Unknown feature " + feature);
+            blocks = ColumnTemplates.getBareColumn(height);
+        } else if (feature == FeatureGrid.RAILWAY) {
+            // The rail depends on the cells around it so this is the one column we can't share
+            blocks = blocks.clone();
+            blocks[blocks.length - 1] = railwayWriter.write(x, y, featureGrid, heightGrid);
+        }
+
+        COLUMNS_WRITTEN.increment();
+        BLOCKS_WRITTEN.add(blocks.length);
         return blocks;
     }
 
+    /**
+     * Draws one layer of features from the local data files
+     */
+    private interface LayerGenerator {
+        void generate(FeatureGrid layer, FeatureCache featureCache, Path localDataPath, String nationalGridReferenceSquare) throws IOException;
+    }
+
+    private static class Layer {
+        final String name;
+        final LayerGenerator generator;
 
+        // Cells the layer has set in all the squares
+        final LongAdder cellsSet;
+
+        Layer(final String name, final LayerGenerator generator) {
+            this.name = name;
+            this.generator = generator;
+            this.cellsSet = Counters.get("cells set by " + name);
+        }
+    }
 }
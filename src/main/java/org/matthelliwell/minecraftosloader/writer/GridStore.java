@@ -0,0 +1,152 @@
+package org.matthelliwell.minecraftosloader.writer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.google.common.hash.Hashing;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.matthelliwell.minecraftosloader.feature.FeatureGrid;
+import org.matthelliwell.minecraftosloader.feature.HeightGrid;
+import org.matthelliwell.util.GridStorage;
+
+/**
+ * Saves the height and feature grids of each grid square to disk so that later runs can skip generating them. The
+ * grids only depend on the input files so each saved square records a hash of the input file signature and is
+ * ignored if the inputs have changed. Bump the version if the generators change in a way that changes the grids.
+ *
+ * The file is a fixed size header followed by the heights and then the features, a tile at a time as they are held in
+ * the grids so they can be copied in bulk. The header is written last so a half written file is never used. Loaded
+ * grids use the mapped file as their tiles so nothing is copied and the OS only reads the pages that get used. They
+ * are read only, and the mapping lasts until the grids are garbage collected.
+ */
+class GridStore {
+    private static final int MAGIC = 0x4F534752; // "OSGR"
+    private static final int VERSION = 3;
+
+    // magic, version, input hash, min x, min y, max x, max y, min height, max height
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 * 4 + 4 + 4;
+
+    private final Path dir;
+    private final GridStorage storage;
+
+    GridStore(final Path dir, final GridStorage storage) throws IOException {
+        this.dir = Files.createDirectories(dir);
+        this.storage = storage;
+    }
+
+    /**
+     * The grids for a grid square
+     */
+    static class Grids {
+        final HeightGrid heightGrid;
+        final FeatureGrid featureGrid;
+
+        Grids(final HeightGrid heightGrid, final FeatureGrid featureGrid) {
+            this.heightGrid = heightGrid;
+            this.featureGrid = featureGrid;
+        }
+    }
+
+    /**
+     * Returns the saved grids for the square or null if they haven't been saved or were generated from different
+     * input files
+     */
+    Grids load(final String nationalGridReferenceSquare, final String gridSquareNumber, final String signature) throws IOException {
+        final Path file = getFile(nationalGridReferenceSquare, gridSquareNumber);
+        if (Files.notExists(file)) {
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // Keep reading until we've got the whole header or hit the end of the file
+            }
+            header.flip();
+            if (header.remaining() < HEADER_SIZE
+                    || header.getInt() != MAGIC
+                    || header.getInt() != VERSION
+                    || header.getLong() != hash(signature)) {
+                return null;
+            }
+
+            final int minX = header.getInt();
+            final int minY = header.getInt();
+            final int maxX = header.getInt();
+            final int maxY = header.getInt();
+            final float minHeight = header.getFloat();
+            final float maxHeight = header.getFloat();
+
+            final long cells = (long) (maxX - minX + 1) * (maxY - minY + 1);
+            if (channel.size() != HEADER_SIZE + cells * 4 + cells) {
+                return null;
+            }
+
+            final ReferencedEnvelope bounds = new ReferencedEnvelope(minX, maxX, minY, maxY, null);
+            final HeightGrid heightGrid = new HeightGrid(bounds, storage);
+            final FeatureGrid featureGrid = new FeatureGrid(bounds, storage);
+
+            final MappedByteBuffer heights = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, cells * 4);
+            heightGrid.useHeightsFrom(heights.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer(), minHeight, maxHeight);
+
+            final MappedByteBuffer features = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + cells * 4, cells);
+            featureGrid.useFeaturesFrom(features);
+
+            System.out.println("Loaded grids for " + nationalGridReferenceSquare + gridSquareNumber + " from " + file);
+            return new Grids(heightGrid, featureGrid);
+        }
+    }
+
+    void save(final String nationalGridReferenceSquare, final String gridSquareNumber, final String signature, final Grids grids) throws IOException {
+        final Path file = getFile(nationalGridReferenceSquare, gridSquareNumber);
+        final ReferencedEnvelope bounds = grids.heightGrid.getBounds();
+        final int minX = (int) bounds.getMinX();
+        final int minY = (int) bounds.getMinY();
+        final int maxX = (int) bounds.getMaxX();
+        final int maxY = (int) bounds.getMaxY();
+        final long cells = (long) (maxX - minX + 1) * (maxY - minY + 1);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // Map the grid data rather than going through a buffer as the height grid can be hundreds of MB
+            final MappedByteBuffer heights = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE, cells * 4);
+            grids.heightGrid.copyHeightsTo(heights.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer());
+            heights.force();
+
+            final MappedByteBuffer features = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + cells * 4, cells);
+            grids.featureGrid.copyFeaturesTo(features);
+            features.force();
+
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC)
+                    .putInt(VERSION)
+                    .putLong(hash(signature))
+                    .putInt(minX)
+                    .putInt(minY)
+                    .putInt(maxX)
+                    .putInt(maxY)
+                    .putFloat(grids.heightGrid.getMinHeight())
+                    .putFloat(grids.heightGrid.getMaxHeight());
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+        }
+    }
+
+    private Path getFile(final String nationalGridReferenceSquare, final String gridSquareNumber) {
+        return dir.resolve(nationalGridReferenceSquare.toLowerCase() + gridSquareNumber + ".grid");
+    }
+
+    private static long hash(final String signature) {
+        return Hashing.sha1().hashString(signature, StandardCharsets.UTF_8).asLong();
+    }
+}
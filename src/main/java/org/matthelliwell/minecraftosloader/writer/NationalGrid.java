@@ -0,0 +1,43 @@
+package org.matthelliwell.minecraftosloader.writer;
+
+/**
+ * Works out where the squares of the OS national grid are from their references. A 100km square is named by two
+ * letters, eg hp, and the 10km squares within it by two digits, the first for the easting and the second for the
+ * northing.
+ */
+class NationalGrid {
+    static final int GRID_SQUARE_SIZE = 10_000;
+
+    /**
+     * Returns the easting of the west edge of the 10km grid square
+     */
+    static int getMinEasting(final String nationalGridReferenceSquare, final String gridSquareNumber) {
+        final int first = letterIndex(nationalGridReferenceSquare.charAt(0));
+        final int second = letterIndex(nationalGridReferenceSquare.charAt(1));
+
+        // The first letter is a 500km square and the second a 100km square within it. Both go along the rows of a 5x5
+        // grid from the north west corner. The false origin is the south west corner of square S, which is the third
+        // 500km square along.
+        final int hundredKm = ((first - 2) % 5) * 5 + second % 5;
+        return hundredKm * 100_000 + Character.digit(gridSquareNumber.charAt(0), 10) * GRID_SQUARE_SIZE;
+    }
+
+    /**
+     * Returns the northing of the south edge of the 10km grid square
+     */
+    static int getMinNorthing(final String nationalGridReferenceSquare, final String gridSquareNumber) {
+        final int first = letterIndex(nationalGridReferenceSquare.charAt(0));
+        final int second = letterIndex(nationalGridReferenceSquare.charAt(1));
+
+        final int hundredKm = 19 - (first / 5) * 5 - second / 5;
+        return hundredKm * 100_000 + Character.digit(gridSquareNumber.charAt(1), 10) * GRID_SQUARE_SIZE;
+    }
+
+    /**
+     * Returns the position of the letter in the 25 letter alphabet used by the grid, which leaves out I
+     */
+    private static int letterIndex(final char letter) {
+        final int index = Character.toUpperCase(letter) - 'A';
+        return index > 'I' - 'A' ? index - 1 : index;
+    }
+}
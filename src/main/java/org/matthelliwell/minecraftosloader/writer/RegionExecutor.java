@@ -0,0 +1,123 @@
+package org.matthelliwell.minecraftosloader.writer;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Runs the work of writing blocks to the world one Minecraft region at a time. All the grid squares that are being
+ * generated share one of these. Grid squares can overlap the same region so each region has its own queue of tasks
+ * and is owned by one worker at a time, which runs the region's tasks one after the other. Idle workers steal regions
+ * from busy ones, and a worker never waits for a region another worker owns.
+ *
+ * Each region is written to its own world, see RegionWorlds, so there is no shared region cache to keep the number of
+ * threads under and the pool can use every core.
+ */
+public class RegionExecutor {
+    private final ForkJoinPool pool;
+
+    private final ConcurrentMap<Long, RegionQueue> regions = new ConcurrentHashMap<>();
+
+    // Every task holds the read lock while it runs. Anything that needs the whole world to itself, eg saving it,
+    // takes the write lock.
+    private final ReadWriteLock worldLock = new ReentrantReadWriteLock();
+
+    /**
+     * @param threads Number of workers
+     */
+    public RegionExecutor(final int threads) {
+        pool = new ForkJoinPool(threads);
+    }
+
+    /**
+     * Runs a task that writes to the region. No other task for the same region will run at the same time. If the task
+     * throws then the returned future fails with the exception.
+     * @param regionX Region x coord, ie MC x coord / 512
+     * @param regionZ Region z coord, ie MC z coord / 512
+     */
+    public Future<?> submit(final int regionX, final int regionZ, final Runnable task) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        final RegionQueue region = regions.computeIfAbsent(regionKey(regionX, regionZ), key -> new RegionQueue());
+        region.tasks.add(() -> {
+            try {
+                task.run();
+                future.complete(null);
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        region.claim();
+
+        return future;
+    }
+
+    /**
+     * Packs the coords of a region into a single value for use as a map key
+     */
+    static long regionKey(final int regionX, final int regionZ) {
+        return ((long) regionX << 32) | (regionZ & 0xFFFFFFFFL);
+    }
+
+    static int regionXOf(final long regionKey) {
+        return (int) (regionKey >> 32);
+    }
+
+    static int regionZOf(final long regionKey) {
+        return (int) regionKey;
+    }
+
+    /**
+     * Returns the lock that stops any task from writing to the world while it is held. Tasks that are already running
+     * finish before the lock is granted.
+     */
+    public Lock getExclusiveLock() {
+        return worldLock.writeLock();
+    }
+
+    /**
+     * Stops the threads once all the tasks have finished
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * The tasks waiting to be run for a region. Whoever sets the owned flag is the only one that can run them, and
+     * must hand the region back and check for tasks added in the meantime once the queue is empty.
+     */
+    private class RegionQueue {
+        final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean owned = new AtomicBoolean();
+
+        void claim() {
+            if (owned.compareAndSet(false, true)) {
+                pool.execute(this::runTasks);
+            }
+        }
+
+        void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                worldLock.readLock().lock();
+                try {
+                    task.run();
+                } finally {
+                    worldLock.readLock().unlock();
+                }
+            }
+
+            owned.set(false);
+            if (!tasks.isEmpty()) {
+                claim();
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.matthelliwell.minecraftosloader.writer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongConsumer;
+
+import net.morbz.minecraft.world.Region;
+
+/**
+ * Keeps track of how many grid squares still have to be written to each Minecraft region, so we know when a region is
+ * finished and can be saved. We don't know the exact bounds of a square until its contour file is loaded so we use
+ * the whole 10km square from its grid reference. This can include a region on the edge that nothing gets written to,
+ * which just means it is finished a little later than it could be.
+ */
+class RegionTracker {
+    private final Map<Long, Integer> squaresLeftInRegion = new HashMap<>();
+
+    /**
+     * Records that the square is going to be written. Call this for every square before any of them finish.
+     */
+    synchronized void addSquare(final String nationalGridReferenceSquare, final String gridSquareNumber) {
+        forEachRegion(nationalGridReferenceSquare, gridSquareNumber, key -> squaresLeftInRegion.merge(key, 1, Integer::sum));
+    }
+
+    /**
+     * Records that the square has been written, or skipped. Returns the keys of the regions that have now had all their
+     * squares written, see RegionExecutor.regionKey.
+     */
+    synchronized List<Long> finishSquare(final String nationalGridReferenceSquare, final String gridSquareNumber) {
+        final List<Long> finished = new ArrayList<>();
+        forEachRegion(nationalGridReferenceSquare, gridSquareNumber, key -> {
+            final int left = squaresLeftInRegion.merge(key, -1, Integer::sum);
+            if (left == 0) {
+                squaresLeftInRegion.remove(key);
+                finished.add(key);
+            }
+        });
+        return finished;
+    }
+
+    private static void forEachRegion(final String nationalGridReferenceSquare, final String gridSquareNumber, final LongConsumer onRegion) {
+        final int minX = NationalGrid.getMinEasting(nationalGridReferenceSquare, gridSquareNumber);
+        final int minY = NationalGrid.getMinNorthing(nationalGridReferenceSquare, gridSquareNumber);
+
+        // The north and east edges are the first cells of the next squares so aren't written by this one
+        final int minRegionX = Math.floorDiv(minX, Region.BLOCKS_PER_REGION_SIDE);
+        final int maxRegionX = Math.floorDiv(minX + NationalGrid.GRID_SQUARE_SIZE - 1, Region.BLOCKS_PER_REGION_SIDE);
+        final int minRegionZ = Math.floorDiv(CoordConverter.convert(minY + NationalGrid.GRID_SQUARE_SIZE - 1), Region.BLOCKS_PER_REGION_SIDE);
+        final int maxRegionZ = Math.floorDiv(CoordConverter.convert(minY), Region.BLOCKS_PER_REGION_SIDE);
+
+        for (int regionX = minRegionX; regionX <= maxRegionX; ++regionX) {
+            for (int regionZ = minRegionZ; regionZ <= maxRegionZ; ++regionZ) {
+                onRegion.accept(RegionExecutor.regionKey(regionX, regionZ));
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.matthelliwell.minecraftosloader.writer;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.morbz.minecraft.level.Level;
+import net.morbz.minecraft.world.DefaultLayers;
+import net.morbz.minecraft.world.World;
+
+/**
+ * The blocks written during the run, held as a separate J2Blocks world for each Minecraft region. A world only ever
+ * gets the blocks of its own region so once every grid square overlapping the region has been written it can be saved
+ * and dropped, rather than keeping the whole run in memory until the end.
+ *
+ * All the worlds share the same level so they save to the same world directory, and they add to whatever an earlier
+ * run left there.
+ */
+class RegionWorlds {
+    private final Level level;
+    private final DefaultLayers layers;
+    private final ConcurrentMap<Long, World> worlds = new ConcurrentHashMap<>();
+
+    RegionWorlds(final Level level, final DefaultLayers layers) {
+        this.level = level;
+        this.layers = layers;
+    }
+
+    /**
+     * Returns the world holding the region, creating it if nothing has been written to the region yet
+     * @param regionX Region x coord, ie MC x coord / 512
+     * @param regionZ Region z coord, ie MC z coord / 512
+     */
+    World get(final int regionX, final int regionZ) {
+        return worlds.computeIfAbsent(RegionExecutor.regionKey(regionX, regionZ), key -> new World(level, layers, true));
+    }
+
+    /**
+     * Saves the region and drops it from memory. Nothing must write to the region while it is saved or afterwards. Does
+     * nothing if no blocks were written to the region.
+     */
+    void saveAndEvict(final int regionX, final int regionZ) throws IOException {
+        final World world = worlds.remove(RegionExecutor.regionKey(regionX, regionZ));
+        if (world != null) {
+            save(world);
+        }
+    }
+
+    /**
+     * Saves every region that is still in memory but keeps them so more blocks can be written. Nothing must write to
+     * any region while they are saved.
+     */
+    void saveAll() throws IOException {
+        for (final World world : worlds.values()) {
+            save(world);
+        }
+    }
+
+    /**
+     * Only one world saves at a time as they all write the level file if it isn't there yet
+     */
+    private synchronized void save(final World world) throws IOException {
+        world.save();
+    }
+}
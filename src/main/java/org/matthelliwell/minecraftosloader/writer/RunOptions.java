@@ -0,0 +1,144 @@
+package org.matthelliwell.minecraftosloader.writer;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.matthelliwell.minecraftosloader.feature.InterpolationMode;
+import org.matthelliwell.util.GridStorage;
+
+/**
+ * Optional settings for a run. These go on the command line after the other arguments as --name=value
+ */
+class RunOptions {
+    private int squaresInParallel = 1;
+    private boolean checkpoint;
+    private Path gridCacheDir;
+    private InterpolationMode interpolationMode = InterpolationMode.TRIANGLE_SCAN;
+    private int siteSpacing;
+    private GridStorage gridStorage = GridStorage.HEAP;
+    private int regionThreads = Runtime.getRuntime().availableProcessors();
+    private int layerThreads = Runtime.getRuntime().availableProcessors();
+    private Path timingsFile;
+
+    static RunOptions parse(final String[] args) {
+        final RunOptions options = new RunOptions();
+        for (final String arg : args) {
+            final String[] nameAndValue = arg.split("=", 2);
+            final String value = nameAndValue.length > 1 ? nameAndValue[1] : "";
+            switch (nameAndValue[0]) {
+                case "--squares":
+                    options.squaresInParallel = Integer.parseInt(value);
+                    break;
+                case "--checkpoint":
+                    options.checkpoint = true;
+                    break;
+                case "--grid-cache":
+                    options.gridCacheDir = Paths.get(value);
+                    break;
+                case "--interpolation":
+                    options.interpolationMode = InterpolationMode.valueOf(value.toUpperCase().replace('-', '_'));
+                    break;
+                case "--site-spacing":
+                    options.siteSpacing = Integer.parseInt(value);
+                    break;
+                case "--grid-storage":
+                    options.gridStorage = GridStorage.valueOf(value.toUpperCase());
+                    break;
+                case "--threads":
+                    options.regionThreads = Integer.parseInt(value);
+                    break;
+                case "--layer-threads":
+                    options.layerThreads = Integer.parseInt(value);
+                    break;
+                case "--timings":
+                    options.timingsFile = Paths.get(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+
+        return options;
+    }
+
+    static void printUsage() {
+        System.out.println("Options:");
+        System.out.println("  --squares=<n>           Number of grid squares to generate at the same time, default 1");
+        System.out.println("  --threads=<n>           Number of threads writing regions, default is the number of cores");
+        System.out.println("  --layer-threads=<n>     Number of threads drawing the feature layers, shared by all the squares,");
+        System.out.println("                          default is the number of cores");
+        System.out.println("  --checkpoint            Save the world after each grid square and skip squares already saved by");
+        System.out.println("                          an earlier run whose input files haven't changed");
+        System.out.println("  --grid-cache=<dir>      Save the height and feature grids of each square in this directory and");
+        System.out.println("                          reuse them in later runs if the input files haven't changed");
+        System.out.println("  --interpolation=<mode>  How to fill in heights between contours, triangle-scan (default) or");
+        System.out.println("                          locate");
+        System.out.println("  --site-spacing=<n>      Only triangulate contour points at least this many metres apart,");
+        System.out.println("                          default 0 to use every point");
+        System.out.println("  --grid-storage=<type>   Where to keep the grids, heap (default), direct or mapped. Direct and");
+        System.out.println("                          mapped keep them off the heap, mapped in temporary files");
+        System.out.println("  --timings=<file>        Write the time, throughput and allocations of each stage of each square");
+        System.out.println("                          to this file, as JSON if it ends in .json and CSV otherwise");
+    }
+
+    /**
+     * How many grid squares we generate at the same time
+     */
+    public int getSquaresInParallel() {
+        return squaresInParallel;
+    }
+
+    /**
+     * Whether we save after each square and record it in the completion manifest so a restarted run can skip it
+     */
+    public boolean isCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * Where we save the generated grids so later runs can reuse them. Null if we aren't saving them.
+     */
+    public Path getGridCacheDir() {
+        return gridCacheDir;
+    }
+
+    public InterpolationMode getInterpolationMode() {
+        return interpolationMode;
+    }
+
+    public int getSiteSpacing() {
+        return siteSpacing;
+    }
+
+    public GridStorage getGridStorage() {
+        return gridStorage;
+    }
+
+    /**
+     * How many threads write blocks to the regions
+     */
+    public int getRegionThreads() {
+        return regionThreads;
+    }
+
+    /**
+     * How many threads draw the feature layers
+     */
+    public int getLayerThreads() {
+        return layerThreads;
+    }
+
+    /**
+     * Where we write the stage timings report. Null if we aren't writing one.
+     */
+    public Path getTimingsFile() {
+        return timingsFile;
+    }
+
+    /**
+     * Describes the options that change the generated grids, so grids saved with different options aren't reused
+     */
+    public String describeGridOptions() {
+        return "interpolation=" + interpolationMode + " site-spacing=" + siteSpacing;
+    }
+}
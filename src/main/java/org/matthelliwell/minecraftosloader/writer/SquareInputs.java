@@ -0,0 +1,43 @@
+package org.matthelliwell.minecraftosloader.writer;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Describes the files a grid square is generated from, so we can tell if they've changed since the square was last
+ * generated. We use the names, sizes and modification times of the files rather than their contents as the local
+ * data files are too big to read just to check them.
+ */
+class SquareInputs {
+
+    /**
+     * Returns a string that changes whenever one of the input files for the square is added, removed or changed
+     */
+    static String signature(final Path terrainDataPath,
+                            final Path localDataPath,
+                            final String nationalGridReferenceSquare,
+                            final String gridSquareNumber) throws IOException {
+        final List<String> files = new ArrayList<>();
+        addFiles(files, terrainDataPath, nationalGridReferenceSquare + gridSquareNumber + "_");
+        addFiles(files, localDataPath, nationalGridReferenceSquare + "_");
+        Collections.sort(files);
+
+        return String.join(",", files);
+    }
+
+    private static void addFiles(final List<String> files, final Path dir, final String prefix) throws IOException {
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(dir, "*.shp")) {
+            for (final Path path : paths) {
+                final String name = path.getFileName().toString();
+                if (name.toUpperCase().startsWith(prefix.toUpperCase())) {
+                    files.add(name + ":" + Files.size(path) + ":" + Files.getLastModifiedTime(path).toMillis());
+                }
+            }
+        }
+    }
+}
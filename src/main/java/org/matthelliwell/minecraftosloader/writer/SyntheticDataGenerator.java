@@ -0,0 +1,467 @@
+package org.matthelliwell.minecraftosloader.writer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import org.geotools.data.FeatureWriter;
+import org.geotools.data.Transaction;
+import org.geotools.data.shapefile.ShapefileDataStore;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ * Writes made up OS data in the same layout and format as the real downloads, so we can do test runs of the world
+ * writer without them. The terrain is a few hills with round contours and the local data is towns of buildings and
+ * roads with woods, water and railways scattered around. It's not meant to look real, just to have about as much in
+ * it as a real square. Everything comes from the seed so the same arguments always give the same files.
+ */
+public class SyntheticDataGenerator {
+    private static final GeometryFactory FACTORY = new GeometryFactory();
+
+    private static final int CONTOUR_INTERVAL = 10;
+
+    // Metres between the points along a contour
+    private static final double CONTOUR_POINT_SPACING = 25;
+
+    // Road classifications and how many of the roads have each one, see RoadClassification
+    private static final String[] ROAD_CLASSIFICATIONS = {"Local Street", "Minor Road", "B Road", "A Road", "Primary Road", "Motorway"};
+    private static final int[] ROAD_CLASSIFICATION_PERCENT = {55, 25, 10, 6, 3, 1};
+
+    private final long seed;
+    private final double density;
+
+    public static void main(String[] argv) throws IOException {
+        if ( argv.length < 3 ) {
+            System.out.println("Usage: org.matthelliwell.minecraftosloader.writer.SyntheticDataGenerator <path to data dir> <nation grid reference squares> <grid square number> [--seed=<n>] [--density=<x>]");
+            System.out.println("eg org.matthelliwell.minecraftosloader.writer.SyntheticDataGenerator /tmp/data hp,hu all --seed=1");
+            System.out.println("Use grid square number = 'all' to make all squares");
+            System.out.println("Density scales the number of features in each square, default 1 which is roughly a rural square");
+            return;
+        }
+
+        long seed = 1;
+        double density = 1;
+        for (int i = 3; i < argv.length; ++i) {
+            final String[] nameAndValue = argv[i].split("=", 2);
+            final String value = nameAndValue.length > 1 ? nameAndValue[1] : "";
+            switch (nameAndValue[0]) {
+                case "--seed":
+                    seed = Long.parseLong(value);
+                    break;
+                case "--density":
+                    density = Double.parseDouble(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + argv[i]);
+            }
+        }
+
+        new SyntheticDataGenerator(seed, density).generate(Paths.get(argv[0]), argv[1], argv[2]);
+    }
+
+    public SyntheticDataGenerator(final long seed, final double density) {
+        this.seed = seed;
+        this.density = density;
+    }
+
+    private void generate(final Path dataDir, final String nationGridReferenceSquares, final String gridSquareNumber) throws IOException {
+        for (final String square : nationGridReferenceSquares.split(",")) {
+            final String nationGridReferenceSquare = square.trim().toLowerCase();
+
+            final List<String> gridSquares = new ArrayList<>();
+            if (gridSquareNumber.toLowerCase().equals("all")) {
+                for (int count = 0; count < 100; ++count) {
+                    gridSquares.add(String.format("%02d", count));
+                }
+            } else {
+                gridSquares.add(gridSquareNumber);
+            }
+
+            // Same directories as WorldWriter.getTerrainDataPath and getLocalDataPath
+            final Path terrainDataPath = Files.createDirectories(dataDir.resolve("terr50_cesh_gb").resolve("data").resolve(nationGridReferenceSquare));
+            final Path localDataPath = Files.createDirectories(dataDir
+                    .resolve("OSOpenMapLocal (ESRI Shape File) " + nationGridReferenceSquare.toUpperCase())
+                    .resolve("data"));
+
+            for (final String gridSquare : gridSquares) {
+                writeTerrain(terrainDataPath, nationGridReferenceSquare, gridSquare, random(nationGridReferenceSquare, gridSquare, 0));
+            }
+
+            // The local data has one file per layer for the whole national grid square
+            try (LocalLayers layers = new LocalLayers(localDataPath, nationGridReferenceSquare.toUpperCase())) {
+                for (final String gridSquare : gridSquares) {
+                    System.out.println("Writing local data for " + nationGridReferenceSquare + gridSquare);
+                    writeLocal(layers, getBounds(nationGridReferenceSquare, gridSquare), random(nationGridReferenceSquare, gridSquare, 1));
+                }
+            }
+        }
+    }
+
+    /**
+     * Each square gets its own random numbers so it comes out the same whichever other squares we make
+     */
+    private Random random(final String nationalGridReferenceSquare, final String gridSquareNumber, final int stream) {
+        return new Random(seed * 1_000_003L + (nationalGridReferenceSquare + gridSquareNumber).hashCode() * 31L + stream);
+    }
+
+    private static Envelope getBounds(final String nationalGridReferenceSquare, final String gridSquareNumber) {
+        final int minX = NationalGrid.getMinEasting(nationalGridReferenceSquare, gridSquareNumber);
+        final int minY = NationalGrid.getMinNorthing(nationalGridReferenceSquare, gridSquareNumber);
+        return new Envelope(minX, minX + NationalGrid.GRID_SQUARE_SIZE, minY, minY + NationalGrid.GRID_SQUARE_SIZE);
+    }
+
+    /**
+     * Writes the contour and spot height files for a square. The ground is flat apart from some round hills, each
+     * with a ring of contours. Where hills overlap the ground is as high as the highest one.
+     */
+    private void writeTerrain(final Path terrainDataPath, final String nationalGridReferenceSquare, final String gridSquareNumber,
+                              final Random random) throws IOException {
+        System.out.println("Writing terrain for " + nationalGridReferenceSquare + gridSquareNumber);
+        final Envelope bounds = getBounds(nationalGridReferenceSquare, gridSquareNumber);
+        final Geometry clip = FACTORY.toGeometry(bounds);
+        final String prefix = nationalGridReferenceSquare.toUpperCase() + gridSquareNumber;
+
+        final int baseHeight = 20 + random.nextInt(60);
+        final int hillCount = Math.max(1, (int) Math.round(8 * density));
+        final double[] hillX = new double[hillCount];
+        final double[] hillY = new double[hillCount];
+        final double[] hillHeight = new double[hillCount];
+        final double[] hillSpread = new double[hillCount];
+        for (int i = 0; i < hillCount; ++i) {
+            hillX[i] = bounds.getMinX() + random.nextDouble() * bounds.getWidth();
+            hillY[i] = bounds.getMinY() + random.nextDouble() * bounds.getHeight();
+            hillHeight[i] = 50 + random.nextDouble() * 350;
+            hillSpread[i] = 400 + random.nextDouble() * 1600;
+        }
+
+        try (ShapefileWriter contours = new ShapefileWriter(terrainDataPath.resolve(prefix + "_line.shp"), MultiLineString.class, "PROP_VALUE", Double.class)) {
+            // A contour round the edge at the base height, so the contours cover the whole square like the real ones
+            contours.write(toMultiLineString(FACTORY.toGeometry(bounds).getBoundary()), (double) baseHeight);
+
+            for (int i = 0; i < hillCount; ++i) {
+                // The hill falls away from its top as a bell curve so each contour is a circle. All the contours of a
+                // hill wobble the same way so they don't cross.
+                final double phase = random.nextDouble() * 2 * Math.PI;
+                final int lobes = 2 + random.nextInt(4);
+                for (int level = CONTOUR_INTERVAL; level < hillHeight[i]; level += CONTOUR_INTERVAL) {
+                    final double radius = hillSpread[i] * Math.sqrt(2 * Math.log(hillHeight[i] / level));
+                    final Geometry contour = wobblyRing(hillX[i], hillY[i], radius, phase, lobes).intersection(clip);
+                    if (!contour.isEmpty()) {
+                        contours.write(toMultiLineString(contour), (double) (baseHeight + level));
+                    }
+                }
+            }
+        }
+
+        try (ShapefileWriter spotHeights = new ShapefileWriter(terrainDataPath.resolve(prefix + "_point.shp"), Point.class, "PROP_VALUE", Integer.class)) {
+            for (int i = 0; i < hillCount; ++i) {
+                if (bounds.contains(hillX[i], hillY[i])) {
+                    spotHeights.write(FACTORY.createPoint(new Coordinate(hillX[i], hillY[i])), (int) Math.round(baseHeight + hillHeight[i]));
+                }
+            }
+
+            final int spotHeightCount = (int) Math.round(50 * density);
+            for (int n = 0; n < spotHeightCount; ++n) {
+                final double x = bounds.getMinX() + random.nextDouble() * bounds.getWidth();
+                final double y = bounds.getMinY() + random.nextDouble() * bounds.getHeight();
+                double height = 0;
+                for (int i = 0; i < hillCount; ++i) {
+                    final double distance2 = (x - hillX[i]) * (x - hillX[i]) + (y - hillY[i]) * (y - hillY[i]);
+                    height = Math.max(height, hillHeight[i] * Math.exp(-distance2 / (2 * hillSpread[i] * hillSpread[i])));
+                }
+                spotHeights.write(FACTORY.createPoint(new Coordinate(x, y)), (int) Math.round(baseHeight + height));
+            }
+        }
+    }
+
+    /**
+     * Adds the local features for a square to the layers. Buildings, roads and sites are grouped into a few towns and
+     * everything else is spread over the square.
+     */
+    private void writeLocal(final LocalLayers layers, final Envelope bounds, final Random random) throws IOException {
+        final int townCount = 1 + random.nextInt(3);
+        final double[] townX = new double[townCount];
+        final double[] townY = new double[townCount];
+        for (int i = 0; i < townCount; ++i) {
+            townX[i] = bounds.getMinX() + (0.2 + 0.6 * random.nextDouble()) * bounds.getWidth();
+            townY[i] = bounds.getMinY() + (0.2 + 0.6 * random.nextDouble()) * bounds.getHeight();
+        }
+
+        for (int n = scale(2_000); n > 0; --n) {
+            final int town = random.nextInt(townCount);
+            layers.buildings.write(rectangle(random, townX[town] + random.nextGaussian() * 500, townY[town] + random.nextGaussian() * 500, 6, 20), null);
+        }
+        for (int n = scale(20); n > 0; --n) {
+            final int town = random.nextInt(townCount);
+            layers.importantBuildings.write(rectangle(random, townX[town] + random.nextGaussian() * 300, townY[town] + random.nextGaussian() * 300, 20, 60), null);
+        }
+        for (int n = scale(30); n > 0; --n) {
+            final int town = random.nextInt(townCount);
+            layers.functionalSites.write(blob(random, townX[town] + random.nextGaussian() * 800, townY[town] + random.nextGaussian() * 800, 50, 150, 16), null);
+        }
+        for (int n = scale(10); n > 0; --n) {
+            final int town = random.nextInt(townCount);
+            layers.glasshouses.write(rectangle(random, townX[town] + random.nextGaussian() * 1_500, townY[town] + random.nextGaussian() * 1_500, 10, 40), null);
+        }
+        for (int n = scale(400); n > 0; --n) {
+            final int town = random.nextInt(townCount);
+            final MultiLineString road = walk(random, townX[town] + random.nextGaussian() * 700, townY[town] + random.nextGaussian() * 700, 20, 25, 0.6);
+            layers.roads.write(road, roadClassification(random));
+        }
+
+        for (int n = scale(150); n > 0; --n) {
+            layers.woodland.write(blob(random, randomX(random, bounds), randomY(random, bounds), 30, 300, 24 + random.nextInt(72)), null);
+        }
+        for (int n = scale(20); n > 0; --n) {
+            layers.lakes.write(blob(random, randomX(random, bounds), randomY(random, bounds), 20, 200, 32), null);
+        }
+        for (int n = scale(200); n > 0; --n) {
+            layers.streams.write(walk(random, randomX(random, bounds), randomY(random, bounds), 30, 20, 0.8), null);
+        }
+        for (int n = scale(3); n > 0; --n) {
+            layers.railways.write(walk(random, randomX(random, bounds), randomY(random, bounds), 200, 50, 0.1), null);
+        }
+
+        // Some squares are on the coast, with the sea along the bottom and a beach above it
+        if (random.nextInt(100) < 15) {
+            final double seaTop = bounds.getMinY() + 300 + random.nextDouble() * 500;
+            final double beachTop = seaTop + 50 + random.nextDouble() * 150;
+            layers.tidalWater.write(toMultiPolygon(FACTORY.toGeometry(new Envelope(bounds.getMinX(), bounds.getMaxX(), bounds.getMinY(), seaTop))), null);
+            layers.foreshore.write(toMultiPolygon(FACTORY.toGeometry(new Envelope(bounds.getMinX(), bounds.getMaxX(), seaTop, beachTop))), null);
+        }
+    }
+
+    private int scale(final int count) {
+        return (int) Math.round(count * density);
+    }
+
+    private static double randomX(final Random random, final Envelope bounds) {
+        return bounds.getMinX() + random.nextDouble() * bounds.getWidth();
+    }
+
+    private static double randomY(final Random random, final Envelope bounds) {
+        return bounds.getMinY() + random.nextDouble() * bounds.getHeight();
+    }
+
+    private static String roadClassification(final Random random) {
+        int percent = random.nextInt(100);
+        for (int i = 0; i < ROAD_CLASSIFICATIONS.length; ++i) {
+            percent -= ROAD_CLASSIFICATION_PERCENT[i];
+            if (percent < 0) {
+                return ROAD_CLASSIFICATIONS[i];
+            }
+        }
+        return ROAD_CLASSIFICATIONS[0];
+    }
+
+    /**
+     * Returns a closed line round a centre, with the radius going in and out a little a few times on the way round so
+     * it isn't a perfect circle
+     */
+    private static LineString wobblyRing(final double centreX, final double centreY, final double radius,
+                                         final double phase, final int lobes) {
+        final int points = Math.max(16, (int) (2 * Math.PI * radius / CONTOUR_POINT_SPACING));
+        final Coordinate[] coords = new Coordinate[points + 1];
+        for (int n = 0; n < points; ++n) {
+            final double angle = 2 * Math.PI * n / points;
+            final double distance = radius * (1 + 0.05 * Math.sin(lobes * angle + phase));
+            coords[n] = new Coordinate(centreX + Math.cos(angle) * distance, centreY + Math.sin(angle) * distance);
+        }
+        coords[points] = coords[0];
+
+        return FACTORY.createLineString(coords);
+    }
+
+    /**
+     * Returns a polygon with its corners at random distances from the centre
+     */
+    private static MultiPolygon blob(final Random random, final double centreX, final double centreY,
+                                     final double minRadius, final double maxRadius, final int vertices) {
+        final double radius = minRadius + random.nextDouble() * (maxRadius - minRadius);
+        final Coordinate[] coords = new Coordinate[vertices + 1];
+        for (int n = 0; n < vertices; ++n) {
+            final double angle = 2 * Math.PI * n / vertices;
+            final double distance = radius * (0.6 + 0.4 * random.nextDouble());
+            coords[n] = new Coordinate(centreX + Math.cos(angle) * distance, centreY + Math.sin(angle) * distance);
+        }
+        coords[vertices] = coords[0];
+
+        return FACTORY.createMultiPolygon(new Polygon[] {FACTORY.createPolygon(coords)});
+    }
+
+    /**
+     * Returns a rectangle at a random angle with sides between the min and max size
+     */
+    private static MultiPolygon rectangle(final Random random, final double centreX, final double centreY,
+                                          final double minSize, final double maxSize) {
+        final double halfWidth = (minSize + random.nextDouble() * (maxSize - minSize)) / 2;
+        final double halfHeight = (minSize + random.nextDouble() * (maxSize - minSize)) / 2;
+        final double angle = random.nextDouble() * Math.PI;
+        final double cos = Math.cos(angle);
+        final double sin = Math.sin(angle);
+
+        final Coordinate[] coords = new Coordinate[5];
+        final double[][] corners = {{-1, -1}, {1, -1}, {1, 1}, {-1, 1}};
+        for (int n = 0; n < 4; ++n) {
+            final double x = corners[n][0] * halfWidth;
+            final double y = corners[n][1] * halfHeight;
+            coords[n] = new Coordinate(centreX + x * cos - y * sin, centreY + x * sin + y * cos);
+        }
+        coords[4] = coords[0];
+
+        return FACTORY.createMultiPolygon(new Polygon[] {FACTORY.createPolygon(coords)});
+    }
+
+    /**
+     * Returns a line that sets off in a random direction and turns by up to half the given angle at each point
+     */
+    private static MultiLineString walk(final Random random, final double startX, final double startY, final int segments,
+                                        final double segmentLength, final double maxTurn) {
+        final Coordinate[] coords = new Coordinate[segments + 1];
+        double x = startX;
+        double y = startY;
+        double direction = random.nextDouble() * 2 * Math.PI;
+        coords[0] = new Coordinate(x, y);
+        for (int n = 1; n <= segments; ++n) {
+            direction += (random.nextDouble() - 0.5) * maxTurn;
+            x += Math.cos(direction) * segmentLength;
+            y += Math.sin(direction) * segmentLength;
+            coords[n] = new Coordinate(x, y);
+        }
+
+        return FACTORY.createMultiLineString(new LineString[] {FACTORY.createLineString(coords)});
+    }
+
+    /**
+     * The loaders only read multi line strings so clipped lines have to be put back into one
+     */
+    private static MultiLineString toMultiLineString(final Geometry geometry) {
+        if (geometry instanceof MultiLineString) {
+            return (MultiLineString) geometry;
+        }
+
+        final List<LineString> lines = new ArrayList<>();
+        for (int n = 0; n < geometry.getNumGeometries(); ++n) {
+            if (geometry.getGeometryN(n) instanceof LineString) {
+                lines.add((LineString) geometry.getGeometryN(n));
+            }
+        }
+        return FACTORY.createMultiLineString(lines.toArray(new LineString[lines.size()]));
+    }
+
+    private static MultiPolygon toMultiPolygon(final Geometry geometry) {
+        return FACTORY.createMultiPolygon(new Polygon[] {(Polygon) geometry});
+    }
+
+    /**
+     * Writes features to a new shapefile, each with a geometry and optionally one attribute
+     */
+    private static class ShapefileWriter implements Closeable {
+        private final ShapefileDataStore store;
+        private final FeatureWriter<SimpleFeatureType, SimpleFeature> writer;
+        private final String attributeName;
+
+        ShapefileWriter(final Path file, final Class<? extends Geometry> geometryType,
+                        final String attributeName, final Class<?> attributeType) throws IOException {
+            this.attributeName = attributeName;
+
+            final SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+            final String fileName = file.getFileName().toString();
+            typeBuilder.setName(fileName.substring(0, fileName.length() - ".shp".length()));
+            typeBuilder.add("the_geom", geometryType);
+            if (attributeName != null) {
+                typeBuilder.add(attributeName, attributeType);
+            }
+
+            store = new ShapefileDataStore(file.toUri().toURL());
+            store.createSchema(typeBuilder.buildFeatureType());
+            writer = store.getFeatureWriterAppend(store.getTypeNames()[0], Transaction.AUTO_COMMIT);
+        }
+
+        ShapefileWriter(final Path file, final Class<? extends Geometry> geometryType) throws IOException {
+            this(file, geometryType, null, null);
+        }
+
+        void write(final Geometry geometry, final Object attribute) throws IOException {
+            final SimpleFeature feature = writer.next();
+            feature.setDefaultGeometry(geometry);
+            if (attributeName != null) {
+                feature.setAttribute(attributeName, attribute);
+            }
+            writer.write();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                writer.close();
+            } finally {
+                store.dispose();
+            }
+        }
+    }
+
+    /**
+     * The local data files for a national grid square, named as the feature generators expect
+     */
+    private static class LocalLayers implements Closeable {
+        final ShapefileWriter buildings;
+        final ShapefileWriter importantBuildings;
+        final ShapefileWriter functionalSites;
+        final ShapefileWriter glasshouses;
+        final ShapefileWriter roads;
+        final ShapefileWriter woodland;
+        final ShapefileWriter lakes;
+        final ShapefileWriter streams;
+        final ShapefileWriter railways;
+        final ShapefileWriter tidalWater;
+        final ShapefileWriter foreshore;
+
+        private final List<ShapefileWriter> all = new ArrayList<>();
+
+        LocalLayers(final Path localDataPath, final String prefix) throws IOException {
+            buildings = open(localDataPath.resolve(prefix + "_Building.shp"), MultiPolygon.class);
+            importantBuildings = open(localDataPath.resolve(prefix + "_ImportantBuilding.shp"), MultiPolygon.class);
+            functionalSites = open(localDataPath.resolve(prefix + "_FunctionalSite.shp"), MultiPolygon.class);
+            glasshouses = open(localDataPath.resolve(prefix + "_Glasshouse.shp"), MultiPolygon.class);
+            woodland = open(localDataPath.resolve(prefix + "_Woodland.shp"), MultiPolygon.class);
+            lakes = open(localDataPath.resolve(prefix + "_SurfaceWater_Area.shp"), MultiPolygon.class);
+            streams = open(localDataPath.resolve(prefix + "_SurfaceWater_Line.shp"), MultiLineString.class);
+            railways = open(localDataPath.resolve(prefix + "_RailwayTrack.shp"), MultiLineString.class);
+            tidalWater = open(localDataPath.resolve(prefix + "_TidalWater.shp"), MultiPolygon.class);
+            foreshore = open(localDataPath.resolve(prefix + "_Foreshore.shp"), MultiPolygon.class);
+
+            roads = new ShapefileWriter(localDataPath.resolve(prefix + "_Road.shp"), MultiLineString.class, "CLASSIFICA", String.class);
+            all.add(roads);
+        }
+
+        private ShapefileWriter open(final Path file, final Class<? extends Geometry> geometryType) throws IOException {
+            final ShapefileWriter writer = new ShapefileWriter(file, geometryType);
+            all.add(writer);
+            return writer;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (final ShapefileWriter writer : all) {
+                writer.close();
+            }
+        }
+    }
+}
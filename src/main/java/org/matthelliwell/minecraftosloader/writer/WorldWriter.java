@@ -5,7 +5,10 @@ import net.morbz.minecraft.level.FlatGenerator;
 import net.morbz.minecraft.level.GameType;
 import net.morbz.minecraft.level.Level;
 import net.morbz.minecraft.world.DefaultLayers;
-import net.morbz.minecraft.world.World;
+import net.morbz.minecraft.world.FileManager;
+import org.matthelliwell.minecraftosloader.file.FeatureCache;
+import org.matthelliwell.util.Counters;
+import org.matthelliwell.util.StageTimings;
 import org.opengis.referencing.FactoryException;
 
 import java.io.IOException;
@@ -13,7 +16,16 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
 
 /**
  * Generates the minecraft world
@@ -21,20 +33,22 @@ import java.util.Date;
 public class WorldWriter {
 
     public static void main(String[] argv) throws IOException, FactoryException {
-        if ( argv.length != 4 ) {
+        if ( argv.length < 4 ) {
             System.out.println("Usage: org.matthelliwell.minecraftosloader.writer.WorldGenerator <world name> <nation grid reference squares> <grid square number> <path to data dir>\"");
             System.out.println("eg org.matthelliwell.minecraftosloader.writer.WorldGenerator test na,nb,nc 24 E:\\Users\\matt\\data");
             System.out.println("Use grid square number = 'all' to load all squares");
+            RunOptions.printUsage();
             return;
         }
 
-        new WorldWriter().generate(argv[0], argv[1], argv[2], argv[3]);
+        new WorldWriter().generate(argv[0], argv[1], argv[2], argv[3], RunOptions.parse(Arrays.copyOfRange(argv, 4, argv.length)));
     }
 
     private void generate(final String worldName,
                           final String nationGridReferenceSquares,
                           final String gridSquareNumber,
-                          final String dataDir) throws IOException {
+                          final String dataDir,
+                          final RunOptions options) throws IOException {
 
         // Checks the files exist now to avoid errors after we've spent ages loading one of the files
         for ( final String square: nationGridReferenceSquares.split(",")) {
@@ -58,35 +72,86 @@ public class WorldWriter {
         layers.setLayer(0, Material.BEDROCK);
         layers.setLayer(1, Material.WATER);
 
-        final Level level = new Level(worldName + " - Matt Helliwell", new FlatGenerator(layers));
+        final String levelName = worldName + " - Matt Helliwell";
+        final Level level = new Level(levelName, new FlatGenerator(layers));
         level.setGameType(GameType.CREATIVE);
         level.setAllowCommands(true);
         level.setMapFeatures(false);
 
-        // Change the last parameter to true is you want to add to an existing world. This is also not overwrite the
-        // level file so if you need a new level file delete the one in the world before running this program
-        final World world = new World(level, layers, true);
+        // The level file is written by whichever region is saved first so the spawn point has to be set now
+        setSpawnPoint(level);
+
+        // Each region is held in its own world so it can be saved and dropped as soon as it is finished. They add to an
+        // existing world and don't overwrite the level file so if you need a new level file delete the one in the
+        // world before running this program
+        final RegionWorlds worlds = new RegionWorlds(level, layers);
 
         final Date startTime = new Date();
-        final long[] blockCount = {0L};
+
+        // Squares completed by an earlier run are skipped if their input files haven't changed
+        final CompletionManifest manifest = options.isCheckpoint()
+                ? new CompletionManifest(new FileManager(levelName, true).getLevelDir().resolve("completed-squares.txt"))
+                : null;
+
+        // Grids saved by an earlier run are reused if their input files haven't changed
+        final GridStore gridStore = options.getGridCacheDir() != null ? new GridStore(options.getGridCacheDir(), options.getGridStorage()) : null;
+
+        // Saves the regions as they are finished rather than keeping them all until the end
+        final RegionTracker regionTracker = new RegionTracker();
+
+        // Grid squares are generated in parallel but they all write their blocks through the same region executor
+        final ExecutorService squareExecutor = Executors.newFixedThreadPool(options.getSquaresInParallel());
+        final RegionExecutor regionExecutor = new RegionExecutor(options.getRegionThreads());
+        final ExecutorService layerExecutor = Executors.newFixedThreadPool(options.getLayerThreads());
+
+        // Every square has to be known to the region tracker before any of them start, otherwise a square that finishes
+        // quickly, eg because it's skipped, could finish a region that a square we haven't got to yet also writes to
+        final List<Callable<Void>> squareTasks = new ArrayList<>();
         for ( final String square: nationGridReferenceSquares.split(",")) {
             final String nationGridReferenceSquare = square.trim().toLowerCase();
             final Path terrainDataPath = getTerrainDataPath(dataDir, nationGridReferenceSquare);
             final Path localDataPath = getLocalDataPath(dataDir, nationGridReferenceSquare);
 
             if (gridSquareNumber.toLowerCase().equals("all")) {
+                // All the grid squares use the same local data files so only read them once
+                final FeatureCache featureCache = new FeatureCache();
                 for (int count = 0; count < 100; ++count) {
-                    new GridSquareWriter().write(world, localDataPath, terrainDataPath, nationGridReferenceSquare, String.format("%02d", count), blockCount);
+                    final String gridSquare = String.format("%02d", count);
+                    regionTracker.addSquare(nationGridReferenceSquare, gridSquare);
+                    squareTasks.add(() -> {
+                        writeSquare(options, worlds, regionExecutor, layerExecutor, manifest, gridStore, localDataPath, terrainDataPath, nationGridReferenceSquare, gridSquare, featureCache);
+                        finishSquare(worlds, regionExecutor, regionTracker, nationGridReferenceSquare, gridSquare);
+                        return null;
+                    });
                 }
             } else {
-                new GridSquareWriter().write(world, localDataPath, terrainDataPath, nationGridReferenceSquare, gridSquareNumber, blockCount);
+                regionTracker.addSquare(nationGridReferenceSquare, gridSquareNumber);
+                squareTasks.add(() -> {
+                    writeSquare(options, worlds, regionExecutor, layerExecutor, manifest, gridStore, localDataPath, terrainDataPath, nationGridReferenceSquare, gridSquareNumber, null);
+                    finishSquare(worlds, regionExecutor, regionTracker, nationGridReferenceSquare, gridSquareNumber);
+                    return null;
+                });
             }
         }
 
-        setSpawnPoint(level);
+        final List<Future<?>> squares = new ArrayList<>();
+        for (final Callable<Void> squareTask : squareTasks) {
+            squares.add(squareExecutor.submit(squareTask));
+        }
+
+        try {
+            waitForSquaresToFinish(squares);
+        } finally {
+            squareExecutor.shutdownNow();
+            regionExecutor.shutdown();
+            layerExecutor.shutdownNow();
+        }
 
+        // Every region should have been saved as its squares finished but save anything that was written outside them
         System.out.println("Saving the world");
-        world.save();
+        try (StageTimings.Stage stage = StageTimings.start("world", "save")) {
+            worlds.saveAll();
+        }
 
         System.out.println("Archiving data");
 
@@ -94,7 +159,101 @@ public class WorldWriter {
         final long elapsed = (endTime.getTime() - startTime.getTime()) / 1000;
 
         System.out.println("z = " + CoordConverter.convert(0) + " - y");
-        System.out.println("Generated " + NumberFormat.getInstance().format(blockCount[0]) + " blocks in " + elapsed + " secs");
+        System.out.println("Generated " + NumberFormat.getInstance().format(Counters.get("blocks written").sum()) + " blocks in " + elapsed + " secs");
+        Counters.print();
+
+        if (options.getTimingsFile() != null) {
+            StageTimings.writeReport(options.getTimingsFile());
+        }
+    }
+
+    /**
+     * Writes a grid square. If we are checkpointing then the square is skipped if it was completed by an earlier run,
+     * otherwise the world is saved once it's written so that it can be recorded as complete.
+     */
+    private void writeSquare(final RunOptions options,
+                             final RegionWorlds worlds,
+                             final RegionExecutor regionExecutor,
+                             final ExecutorService layerExecutor,
+                             final CompletionManifest manifest,
+                             final GridStore gridStore,
+                             final Path localDataPath,
+                             final Path terrainDataPath,
+                             final String nationGridReferenceSquare,
+                             final String gridSquareNumber,
+                             final FeatureCache featureCache) throws IOException {
+        if (manifest == null) {
+            new GridSquareWriter(options, layerExecutor).write(worlds, regionExecutor, localDataPath, terrainDataPath, nationGridReferenceSquare, gridSquareNumber, featureCache, gridStore);
+            return;
+        }
+
+        final String signature = SquareInputs.signature(terrainDataPath, localDataPath, nationGridReferenceSquare, gridSquareNumber);
+        if (manifest.isComplete(nationGridReferenceSquare, gridSquareNumber, signature)) {
+            System.out.println("Skipping " + nationGridReferenceSquare + gridSquareNumber + " as it was completed by an earlier run");
+            return;
+        }
+
+        new GridSquareWriter(options, layerExecutor).write(worlds, regionExecutor, localDataPath, terrainDataPath, nationGridReferenceSquare, gridSquareNumber, featureCache, gridStore);
+
+        System.out.println("Saving the world after " + nationGridReferenceSquare + gridSquareNumber);
+        saveWorld(worlds, regionExecutor);
+        manifest.markComplete(nationGridReferenceSquare, gridSquareNumber, signature);
+    }
+
+    /**
+     * Tells the region tracker the square is done and saves and drops the regions that no other square writes to. Each
+     * save runs as a task on its region so it can't overlap a write to the region, while the other regions carry on.
+     */
+    private static void finishSquare(final RegionWorlds worlds,
+                                     final RegionExecutor regionExecutor,
+                                     final RegionTracker regionTracker,
+                                     final String nationGridReferenceSquare,
+                                     final String gridSquareNumber) throws IOException {
+        final List<Future<?>> saves = new ArrayList<>();
+        for (final long regionKey : regionTracker.finishSquare(nationGridReferenceSquare, gridSquareNumber)) {
+            final int regionX = RegionExecutor.regionXOf(regionKey);
+            final int regionZ = RegionExecutor.regionZOf(regionKey);
+            saves.add(regionExecutor.submit(regionX, regionZ, () -> {
+                try (StageTimings.Stage stage = StageTimings.start("region " + regionX + "," + regionZ, "save")) {
+                    worlds.saveAndEvict(regionX, regionZ);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        waitForSquaresToFinish(saves);
+    }
+
+    /**
+     * Saves all the regions during the run. Other squares can't be writing blocks while we save as the regions aren't
+     * safe to change while they're being saved.
+     */
+    private static void saveWorld(final RegionWorlds worlds, final RegionExecutor regionExecutor) throws IOException {
+        final Lock lock = regionExecutor.getExclusiveLock();
+        lock.lock();
+        try (StageTimings.Stage stage = StageTimings.start("world", "save")) {
+            worlds.saveAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for all the squares, or region saves, to finish. If any of them fails we give up on the whole run.
+     */
+    private static void waitForSquaresToFinish(final List<Future<?>> squares) throws IOException {
+        for (final Future<?> square : squares) {
+            try {
+                square.get();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            }
+        }
     }
 
     private Path getLocalDataPath(final String dataDir, final String nationGridReferenceSquare) {
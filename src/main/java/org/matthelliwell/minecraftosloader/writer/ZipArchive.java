@@ -0,0 +1,448 @@
+package org.matthelliwell.minecraftosloader.writer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Just enough of the zip format to rebuild an archive without compressing again the entries that haven't changed.
+ * java.util.zip can only add an entry by compressing it, so copying a square's zip with it costs as much as building
+ * it from scratch. Here the entries of the old zip are copied across as they are and only the new ones are deflated.
+ *
+ * Handles zip64 so the archives can grow past 4GB, although a single entry has to be under 4GB. Encrypted and spanned
+ * zips aren't handled as nothing writes them.
+ */
+class ZipArchive {
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+
+    private static final int LOCAL_HEADER_LENGTH = 30;
+    private static final int CENTRAL_HEADER_LENGTH = 46;
+    private static final int END_OF_CENTRAL_DIRECTORY_LENGTH = 22;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LENGTH = 56;
+    private static final int ZIP64_LOCATOR_LENGTH = 20;
+
+    private static final short ZIP64_EXTRA = 0x0001;
+    private static final short EXTENDED_TIMESTAMP_EXTRA = 0x5455;
+
+    private static final int VERSION_DEFLATE = 20;
+    private static final int VERSION_ZIP64 = 45;
+
+    private static final int FLAG_DATA_DESCRIPTOR = 0x08;
+    private static final int FLAG_UTF8 = 0x800;
+
+    private static final long MAX_32 = 0xFFFFFFFFL;
+    private static final int MAX_16 = 0xFFFF;
+
+    /**
+     * An entry as listed in the central directory
+     */
+    static class Entry {
+        final String name;
+        final int method;
+        final int flags;
+        final int dosTime;
+        final long crc;
+        final long compressedSize;
+        final long size;
+
+        // Seconds since the epoch, or -1 if the zip didn't record it to the second
+        final long lastModifiedSeconds;
+
+        final long localHeaderOffset;
+
+        Entry(final String name, final int method, final int flags, final int dosTime, final long crc,
+              final long compressedSize, final long size, final long lastModifiedSeconds, final long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.flags = flags;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.lastModifiedSeconds = lastModifiedSeconds;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        /**
+         * The same entry at a different place in a new zip. The sizes always go in the local header so it never needs
+         * a data descriptor.
+         */
+        Entry movedTo(final long newLocalHeaderOffset) {
+            return new Entry(name, method, (flags & ~FLAG_DATA_DESCRIPTOR) | FLAG_UTF8, dosTime, crc, compressedSize,
+                    size, lastModifiedSeconds, newLocalHeaderOffset);
+        }
+    }
+
+    /**
+     * Lists the entries in the zip, in the order they are in its central directory
+     */
+    static List<Entry> readEntries(final FileChannel zipFile) throws IOException {
+        final long fileSize = zipFile.size();
+
+        // The end record is the last thing in the file apart from a comment of up to 64k
+        final int tailLength = (int) Math.min(fileSize, END_OF_CENTRAL_DIRECTORY_LENGTH + MAX_16);
+        final long tailStart = fileSize - tailLength;
+        final ByteBuffer tail = read(zipFile, tailStart, tailLength);
+        int end = tailLength - END_OF_CENTRAL_DIRECTORY_LENGTH;
+        while (end >= 0 && tail.getInt(end) != END_OF_CENTRAL_DIRECTORY) {
+            --end;
+        }
+        if (end < 0) {
+            throw new ZipException("Can't find the end of the central directory");
+        }
+
+        long entryCount = tail.getShort(end + 10) & MAX_16;
+        long directoryLength = tail.getInt(end + 12) & MAX_32;
+        long directoryOffset = tail.getInt(end + 16) & MAX_32;
+        if (entryCount == MAX_16 || directoryLength == MAX_32 || directoryOffset == MAX_32) {
+            // Too big for the end record so the real values are in the zip64 one, which the locator just before the end
+            // record points at
+            final ByteBuffer locator = read(zipFile, tailStart + end - ZIP64_LOCATOR_LENGTH, ZIP64_LOCATOR_LENGTH);
+            if (locator.getInt(0) != ZIP64_LOCATOR) {
+                throw new ZipException("Can't find the zip64 end of central directory locator");
+            }
+            final ByteBuffer zip64End = read(zipFile, locator.getLong(8), ZIP64_END_OF_CENTRAL_DIRECTORY_LENGTH);
+            if (zip64End.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY) {
+                throw new ZipException("Can't find the zip64 end of central directory");
+            }
+            entryCount = zip64End.getLong(32);
+            directoryLength = zip64End.getLong(40);
+            directoryOffset = zip64End.getLong(48);
+        }
+        if (directoryLength > Integer.MAX_VALUE) {
+            throw new ZipException("Central directory is too big, got " + directoryLength + " bytes");
+        }
+
+        final ByteBuffer directory = read(zipFile, directoryOffset, (int) directoryLength);
+        final List<Entry> entries = new ArrayList<>();
+        for (long i = 0; i < entryCount; ++i) {
+            entries.add(readCentralHeader(directory));
+        }
+        return entries;
+    }
+
+    private static Entry readCentralHeader(final ByteBuffer directory) throws ZipException {
+        if (directory.remaining() < CENTRAL_HEADER_LENGTH || directory.getInt() != CENTRAL_HEADER) {
+            throw new ZipException("Bad central directory header");
+        }
+        // Skip the versions made by and needed to extract
+        directory.position(directory.position() + 4);
+        final int flags = directory.getShort() & MAX_16;
+        final int method = directory.getShort() & MAX_16;
+        final int dosTime = directory.getInt();
+        final long crc = directory.getInt() & MAX_32;
+        long compressedSize = directory.getInt() & MAX_32;
+        long size = directory.getInt() & MAX_32;
+        final int nameLength = directory.getShort() & MAX_16;
+        final int extraLength = directory.getShort() & MAX_16;
+        final int commentLength = directory.getShort() & MAX_16;
+        // Skip the disk number and the file attributes
+        directory.position(directory.position() + 8);
+        long localHeaderOffset = directory.getInt() & MAX_32;
+
+        final byte[] name = new byte[nameLength];
+        directory.get(name);
+
+        long lastModifiedSeconds = -1;
+        final int extraEnd = directory.position() + extraLength;
+        while (directory.position() + 4 <= extraEnd) {
+            final short id = directory.getShort();
+            final int length = directory.getShort() & MAX_16;
+            final int next = directory.position() + length;
+            if (id == ZIP64_EXTRA) {
+                // Only the values that didn't fit are here, in this order
+                if (size == MAX_32) {
+                    size = directory.getLong();
+                }
+                if (compressedSize == MAX_32) {
+                    compressedSize = directory.getLong();
+                }
+                if (localHeaderOffset == MAX_32) {
+                    localHeaderOffset = directory.getLong();
+                }
+            } else if (id == EXTENDED_TIMESTAMP_EXTRA && length >= 5 && (directory.get() & 1) != 0) {
+                lastModifiedSeconds = directory.getInt() & MAX_32;
+            }
+            directory.position(next);
+        }
+        directory.position(extraEnd + commentLength);
+
+        return new Entry(new String(name, StandardCharsets.UTF_8), method, flags, dosTime, crc, compressedSize, size,
+                lastModifiedSeconds, localHeaderOffset);
+    }
+
+    private static ByteBuffer read(final FileChannel channel, final long position, final int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new ZipException("Unexpected end of zip file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Writes a new zip, entry by entry. Nothing is readable until finish has been called.
+     */
+    static class Writer implements Closeable {
+        private final FileChannel out;
+        private final Deflater deflater;
+        private final List<Entry> entries = new ArrayList<>();
+        private final byte[] input = new byte[64 * 1024];
+        private final byte[] output = new byte[64 * 1024];
+
+        /**
+         * @param level Deflate level for the entries that are added, 0-9 or Deflater.DEFAULT_COMPRESSION
+         */
+        Writer(final Path zipFile, final int level) throws IOException {
+            out = FileChannel.open(zipFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            deflater = new Deflater(level, true);
+        }
+
+        /**
+         * Copies the entry from another zip without decompressing it
+         */
+        void copy(final FileChannel zipFile, final Entry entry) throws IOException {
+            // The local header can have a different extra field to the central directory so we have to read its
+            // lengths to find where the data starts
+            final ByteBuffer header = read(zipFile, entry.localHeaderOffset, LOCAL_HEADER_LENGTH);
+            if (header.getInt(0) != LOCAL_HEADER) {
+                throw new ZipException("Bad local header for " + entry.name);
+            }
+            final long dataStart = entry.localHeaderOffset + LOCAL_HEADER_LENGTH + (header.getShort(26) & MAX_16) + (header.getShort(28) & MAX_16);
+
+            final Entry copy = entry.movedTo(out.position());
+            writeLocalHeader(copy);
+            long copied = 0;
+            while (copied < entry.compressedSize) {
+                copied += zipFile.transferTo(dataStart + copied, entry.compressedSize - copied, out);
+            }
+            entries.add(copy);
+        }
+
+        /**
+         * Deflates the file into a new entry, keeping its modified time so later runs can tell if it has changed
+         */
+        void add(final String name, final Path file) throws IOException {
+            final long lastModifiedSeconds = Files.getLastModifiedTime(file).to(TimeUnit.SECONDS);
+            final long headerOffset = out.position();
+
+            // We don't know the sizes yet so write the header and come back to it. It is the same length either way.
+            writeLocalHeader(new Entry(name, ZipEntry.DEFLATED, FLAG_UTF8, toDosTime(lastModifiedSeconds), 0, 0, 0,
+                    lastModifiedSeconds, headerOffset));
+            final long dataStart = out.position();
+
+            final CRC32 crc = new CRC32();
+            long size = 0;
+            deflater.reset();
+            try (InputStream in = Files.newInputStream(file)) {
+                int read;
+                while ((read = in.read(input)) >= 0) {
+                    crc.update(input, 0, read);
+                    size += read;
+                    deflater.setInput(input, 0, read);
+                    while (!deflater.needsInput()) {
+                        deflate();
+                    }
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                deflate();
+            }
+
+            final long dataEnd = out.position();
+            final Entry entry = new Entry(name, ZipEntry.DEFLATED, FLAG_UTF8, toDosTime(lastModifiedSeconds),
+                    crc.getValue(), dataEnd - dataStart, size, lastModifiedSeconds, headerOffset);
+            out.position(headerOffset);
+            writeLocalHeader(entry);
+            out.position(dataEnd);
+            entries.add(entry);
+        }
+
+        void addDirectory(final String name) throws IOException {
+            final long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+            final Entry entry = new Entry(name, ZipEntry.STORED, FLAG_UTF8, toDosTime(now), 0, 0, 0, now, out.position());
+            writeLocalHeader(entry);
+            entries.add(entry);
+        }
+
+        /**
+         * Writes the central directory, after which the zip is complete
+         */
+        void finish() throws IOException {
+            final long directoryOffset = out.position();
+            for (final Entry entry : entries) {
+                writeCentralHeader(entry);
+            }
+            final long directoryLength = out.position() - directoryOffset;
+
+            if (entries.size() >= MAX_16 || directoryLength >= MAX_32 || directoryOffset >= MAX_32) {
+                final long zip64EndOffset = out.position();
+                final ByteBuffer zip64End = header(ZIP64_END_OF_CENTRAL_DIRECTORY_LENGTH);
+                zip64End.putInt(ZIP64_END_OF_CENTRAL_DIRECTORY)
+                        .putLong(ZIP64_END_OF_CENTRAL_DIRECTORY_LENGTH - 12)
+                        .putShort((short) VERSION_ZIP64)
+                        .putShort((short) VERSION_ZIP64)
+                        .putInt(0)
+                        .putInt(0)
+                        .putLong(entries.size())
+                        .putLong(entries.size())
+                        .putLong(directoryLength)
+                        .putLong(directoryOffset);
+                writeHeader(zip64End);
+
+                final ByteBuffer locator = header(ZIP64_LOCATOR_LENGTH);
+                locator.putInt(ZIP64_LOCATOR)
+                        .putInt(0)
+                        .putLong(zip64EndOffset)
+                        .putInt(1);
+                writeHeader(locator);
+            }
+
+            final ByteBuffer end = header(END_OF_CENTRAL_DIRECTORY_LENGTH);
+            end.putInt(END_OF_CENTRAL_DIRECTORY)
+                    .putShort((short) 0)
+                    .putShort((short) 0)
+                    .putShort((short) Math.min(entries.size(), MAX_16))
+                    .putShort((short) Math.min(entries.size(), MAX_16))
+                    .putInt((int) Math.min(directoryLength, MAX_32))
+                    .putInt((int) Math.min(directoryOffset, MAX_32))
+                    .putShort((short) 0);
+            writeHeader(end);
+        }
+
+        @Override
+        public void close() throws IOException {
+            deflater.end();
+            out.close();
+        }
+
+        private void deflate() throws IOException {
+            final int length = deflater.deflate(output);
+            write(ByteBuffer.wrap(output, 0, length));
+        }
+
+        private void writeLocalHeader(final Entry entry) throws IOException {
+            // The sizes have to fit here as there is no room to add a zip64 field once the data has been written
+            if (entry.compressedSize >= MAX_32 || entry.size >= MAX_32) {
+                throw new ZipException("Entries must be under 4GB, " + entry.name + " is " + entry.size + " bytes");
+            }
+            final byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+            final byte[] extra = timestampExtra(entry);
+            final ByteBuffer header = header(LOCAL_HEADER_LENGTH + name.length + extra.length);
+            header.putInt(LOCAL_HEADER)
+                    .putShort((short) VERSION_DEFLATE)
+                    .putShort((short) entry.flags)
+                    .putShort((short) entry.method)
+                    .putInt(entry.dosTime)
+                    .putInt((int) entry.crc)
+                    .putInt((int) entry.compressedSize)
+                    .putInt((int) entry.size)
+                    .putShort((short) name.length)
+                    .putShort((short) extra.length)
+                    .put(name)
+                    .put(extra);
+            writeHeader(header);
+        }
+
+        private void writeCentralHeader(final Entry entry) throws IOException {
+            final boolean zip64 = entry.localHeaderOffset >= MAX_32;
+            final byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+            final byte[] timestamp = timestampExtra(entry);
+            final int extraLength = timestamp.length + (zip64 ? 12 : 0);
+            final ByteBuffer header = header(CENTRAL_HEADER_LENGTH + name.length + extraLength);
+            header.putInt(CENTRAL_HEADER)
+                    .putShort((short) (zip64 ? VERSION_ZIP64 : VERSION_DEFLATE))
+                    .putShort((short) (zip64 ? VERSION_ZIP64 : VERSION_DEFLATE))
+                    .putShort((short) entry.flags)
+                    .putShort((short) entry.method)
+                    .putInt(entry.dosTime)
+                    .putInt((int) entry.crc)
+                    .putInt((int) entry.compressedSize)
+                    .putInt((int) entry.size)
+                    .putShort((short) name.length)
+                    .putShort((short) extraLength)
+                    .putShort((short) 0)
+                    .putShort((short) 0)
+                    .putShort((short) 0)
+                    .putInt(0)
+                    .putInt((int) (zip64 ? MAX_32 : entry.localHeaderOffset))
+                    .put(name)
+                    .put(timestamp);
+            if (zip64) {
+                header.putShort(ZIP64_EXTRA)
+                        .putShort((short) 8)
+                        .putLong(entry.localHeaderOffset);
+            }
+            writeHeader(header);
+        }
+
+        private void writeHeader(final ByteBuffer header) throws IOException {
+            header.flip();
+            write(header);
+        }
+
+        private void write(final ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        }
+    }
+
+    private static ByteBuffer header(final int length) {
+        return ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * The modified time to the second, which the DOS time in the headers can't hold
+     */
+    private static byte[] timestampExtra(final Entry entry) {
+        if (entry.lastModifiedSeconds < 0) {
+            return new byte[0];
+        }
+        return header(9)
+                .putShort(EXTENDED_TIMESTAMP_EXTRA)
+                .putShort((short) 5)
+                .put((byte) 1)
+                .putInt((int) entry.lastModifiedSeconds)
+                .array();
+    }
+
+    private static int toDosTime(final long seconds) {
+        final Instant instant = Instant.ofEpochSecond(seconds);
+        final LocalDateTime time = LocalDateTime.ofInstant(instant, ZoneId.systemDefault());
+        if (time.getYear() < 1980) {
+            // The earliest time DOS can hold, 1/1/1980
+            return (1 << 21) | (1 << 16);
+        }
+        return (time.getYear() - 1980) << 25
+                | time.getMonthValue() << 21
+                | time.getDayOfMonth() << 16
+                | time.getHour() << 11
+                | time.getMinute() << 5
+                | time.getSecond() >> 1;
+    }
+}
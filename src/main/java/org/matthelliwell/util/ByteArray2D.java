@@ -1,25 +1,221 @@
 package org.matthelliwell.util;
 
+import java.nio.ByteBuffer;
+
 /**
- * A simple 2D array where the first coordinates don't have to be zero
+ * A 2D array where the first coordinates don't have to be zero. The array is split into square tiles which line up on
+ * a grid starting at the tile origin, so the tiles can be made to match some other grid such as the Minecraft regions.
+ * Each tile holds its values in one buffer a row at a time, which can be on or off the heap. Tiles on the edges are cut down to the part inside the
+ * array, and a tile isn't allocated until a value other than zero is set in it.
+ *
+ * Setting values isn't thread safe as it can allocate tiles. Reading is.
  */
 public class ByteArray2D {
-    private final byte[][] array;
+    // Value of the cells in tiles that haven't been allocated
+    private static final byte DEFAULT_VALUE = 0;
 
     private final int minX;
     private final int minY;
+    private final int maxX;
+    private final int maxY;
+
+    private final int tileShift;
+    private final int tileOriginX;
+    private final int tileOriginY;
+    private final int firstTileCol;
+    private final int firstTileRow;
+    private final int tileCols;
+
+    // Bounds of each tile, cut down to the part inside the array
+    private final int[] tileMinX;
+    private final int[] tileMinY;
+    private final int[] tileMaxX;
+    private final int[] tileMaxY;
+
+    // Tiles a row at a time, null if not allocated yet
+    private final ByteBuffer[] tiles;
+    // Where each tile starts in the grid, counting cells a tile at a time
+    private final int[] tileOffset;
+    private final GridStorage.GridTiles storage;
+
+    /**
+     * @param tileSize Width and height of the tiles, must be a power of two
+     * @param tileOriginX X coord of the corner of one of the tiles
+     * @param tileOriginY Y coord of the corner of one of the tiles
+     * @param storage Where to allocate the tiles
+     */
+    public ByteArray2D(final int xSize, final int ySize, final int minX, final int minY,
+                       final int tileSize, final int tileOriginX, final int tileOriginY,
+                       final GridStorage storage) {
+        if (Integer.bitCount(tileSize) != 1) {
+            throw new IllegalArgumentException("Tile size must be a power of two, got " + tileSize);
+        }
 
-    public ByteArray2D(final int xSize, final int ySize, final int minX, final int minY) {
         this.minX = minX;
         this.minY = minY;
-        this.array = new byte[xSize][ySize];
+        this.maxX = minX + xSize - 1;
+        this.maxY = minY + ySize - 1;
+        this.tileShift = Integer.numberOfTrailingZeros(tileSize);
+        this.tileOriginX = tileOriginX;
+        this.tileOriginY = tileOriginY;
+        this.firstTileCol = (minX - tileOriginX) >> tileShift;
+        this.firstTileRow = (minY - tileOriginY) >> tileShift;
+        this.tileCols = ((maxX - tileOriginX) >> tileShift) - firstTileCol + 1;
+        final int tileRows = ((maxY - tileOriginY) >> tileShift) - firstTileRow + 1;
+        this.tiles = new ByteBuffer[tileCols * tileRows];
+
+        tileMinX = new int[tiles.length];
+        tileMinY = new int[tiles.length];
+        tileMaxX = new int[tiles.length];
+        tileMaxY = new int[tiles.length];
+        for (int tile = 0; tile < tiles.length; ++tile) {
+            final int col = firstTileCol + tile % tileCols;
+            final int row = firstTileRow + tile / tileCols;
+            tileMinX[tile] = Math.max(minX, tileOriginX + (col << tileShift));
+            tileMaxX[tile] = Math.min(maxX, tileOriginX + ((col + 1) << tileShift) - 1);
+            tileMinY[tile] = Math.max(minY, tileOriginY + (row << tileShift));
+            tileMaxY[tile] = Math.min(maxY, tileOriginY + ((row + 1) << tileShift) - 1);
+        }
+
+        tileOffset = new int[tiles.length];
+        long cells = 0;
+        for (int tile = 0; tile < tiles.length; ++tile) {
+            tileOffset[tile] = (int) cells;
+            cells += tileCellCount(tile);
+        }
+        this.storage = storage.tilesFor(cells);
     }
 
     public byte get(final int x, final int y) {
-        return array[x - minX][y - minY];
+        final int tile = tileIndex(x, y);
+        final ByteBuffer values = tiles[tile];
+        return values == null ? DEFAULT_VALUE : values.get(indexInTile(tile, x, y));
     }
 
     public void set(final int x, final int y, final byte value) {
-        array[x - minX][y - minY] = value;
+        final int tile = tileIndex(x, y);
+        if (tiles[tile] == null) {
+            if (value == DEFAULT_VALUE) {
+                return;
+            }
+            tiles[tile] = allocateTile(tile);
+        }
+        tiles[tile].put(indexInTile(tile, x, y), value);
+    }
+
+    /**
+     * Sets the cells in row y from rowMinX to rowMaxX inclusive, which must be inside the array
+     */
+    public void fillRow(final int y, final int rowMinX, final int rowMaxX, final byte value) {
+        final int tileRow = tileRowOf(y);
+        for (int tileCol = tileColOf(rowMinX); tileCol <= tileColOf(rowMaxX); ++tileCol) {
+            final int tile = tileRow * tileCols + tileCol;
+            if (tiles[tile] == null) {
+                if (value == DEFAULT_VALUE) {
+                    continue;
+                }
+                tiles[tile] = allocateTile(tile);
+            }
+
+            final int fromX = Math.max(rowMinX, tileMinX[tile]);
+            final int toX = Math.min(rowMaxX, tileMaxX[tile]);
+            final ByteBuffer values = tiles[tile];
+            for (int i = indexInTile(tile, fromX, y), end = i + toX - fromX; i <= end; ++i) {
+                values.put(i, value);
+            }
+        }
+    }
+
+    /**
+     * Calls the function with the bounds of each tile, cut down to the part inside the array
+     */
+    public void forEachTile(final RectConsumer onTile) {
+        for (int tile = 0; tile < tiles.length; ++tile) {
+            onTile.accept(tileMinX[tile], tileMinY[tile], tileMaxX[tile], tileMaxY[tile]);
+        }
+    }
+
+    /**
+     * Copies the whole array into the buffer a tile at a time
+     */
+    public void copyTo(final ByteBuffer buffer) {
+        for (int tile = 0; tile < tiles.length; ++tile) {
+            if (tiles[tile] != null) {
+                buffer.put((ByteBuffer) tiles[tile].duplicate().clear());
+            } else {
+                for (int i = tileCellCount(tile); i > 0; --i) {
+                    buffer.put(DEFAULT_VALUE);
+                }
+            }
+        }
+    }
+
+    /**
+     * Uses slices of a buffer written by copyTo as the tiles rather than copying it, so a mapped file is only read as
+     * the tiles are used. The buffer has to stay valid while the array is used, and setting values fails if it is read
+     * only.
+     */
+    public void useTilesFrom(final ByteBuffer buffer) {
+        int position = buffer.position();
+        for (int tile = 0; tile < tiles.length; ++tile) {
+            final ByteBuffer slice = buffer.duplicate();
+            slice.limit(position + tileCellCount(tile));
+            slice.position(position);
+            tiles[tile] = slice.slice();
+            position += tileCellCount(tile);
+        }
+        buffer.position(position);
+    }
+
+    /**
+     * Copies every cell of the layer that isn't zero over the same cell of this array. The layer must have the same
+     * bounds and tiles. Tiles the layer hasn't allocated have nothing set so are skipped.
+     */
+    public void overlay(final ByteArray2D layer) {
+        if (layer.minX != minX || layer.minY != minY || layer.maxX != maxX || layer.maxY != maxY
+                || layer.tileShift != tileShift || layer.tileOriginX != tileOriginX || layer.tileOriginY != tileOriginY) {
+            throw new IllegalArgumentException("Layer doesn't match the array");
+        }
+
+        for (int tile = 0; tile < tiles.length; ++tile) {
+            final ByteBuffer source = layer.tiles[tile];
+            if (source == null) {
+                continue;
+            }
+
+            for (int i = 0, end = tileCellCount(tile); i < end; ++i) {
+                final byte value = source.get(i);
+                if (value != DEFAULT_VALUE) {
+                    if (tiles[tile] == null) {
+                        tiles[tile] = allocateTile(tile);
+                    }
+                    tiles[tile].put(i, value);
+                }
+            }
+        }
+    }
+
+    private ByteBuffer allocateTile(final int tile) {
+        return storage.allocateBytes(tileOffset[tile], tileCellCount(tile));
+    }
+
+    private int tileIndex(final int x, final int y) {
+        return tileRowOf(y) * tileCols + tileColOf(x);
+    }
+
+    private int tileColOf(final int x) {
+        return ((x - tileOriginX) >> tileShift) - firstTileCol;
+    }
+
+    private int tileRowOf(final int y) {
+        return ((y - tileOriginY) >> tileShift) - firstTileRow;
+    }
+
+    private int indexInTile(final int tile, final int x, final int y) {
+        return (y - tileMinY[tile]) * (tileMaxX[tile] - tileMinX[tile] + 1) + (x - tileMinX[tile]);
+    }
+
+    private int tileCellCount(final int tile) {
+        return (tileMaxX[tile] - tileMinX[tile] + 1) * (tileMaxY[tile] - tileMinY[tile] + 1);
     }
 }
@@ -0,0 +1,9 @@
+package org.matthelliwell.util;
+
+/**
+ * Receives the coordinates of a single cell
+ */
+@FunctionalInterface
+public interface CellConsumer {
+        void accept(int x, int y);
+}
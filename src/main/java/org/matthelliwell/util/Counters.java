@@ -0,0 +1,35 @@
+package org.matthelliwell.util;
+
+import java.text.NumberFormat;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Named counters for the whole run. The counters are LongAdders, which spread updates from different threads over
+ * separate cells, so workers can count without fighting over a cache line and no counts are lost. Look a counter up
+ * once, eg in a static field, rather than on every update.
+ */
+public class Counters {
+    private static final ConcurrentMap<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+
+    public static LongAdder get(final String name) {
+        return COUNTERS.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    /**
+     * Returns the current value of every counter, sorted by name
+     */
+    public static Map<String, Long> snapshot() {
+        final Map<String, Long> values = new TreeMap<>();
+        COUNTERS.forEach((name, counter) -> values.put(name, counter.sum()));
+        return values;
+    }
+
+    public static void print() {
+        final NumberFormat format = NumberFormat.getInstance();
+        snapshot().forEach((name, value) -> System.out.println(name + ": " + format.format(value)));
+    }
+}
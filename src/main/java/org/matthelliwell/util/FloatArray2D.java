@@ -1,33 +1,219 @@
 package org.matthelliwell.util;
 
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
 /**
- * A simple 2D array where the first coordinates don't have to be zero
+ * A 2D array where the first coordinates don't have to be zero. The array is split into square tiles which line up on
+ * a grid starting at the tile origin, so the tiles can be made to match some other grid such as the Minecraft regions.
+ * Each tile holds its values in one buffer a row at a time, which can be on or off the heap. Tiles on the edges are cut down to the part inside the
+ * array, and a tile isn't allocated until a value other than the default is set in it.
+ *
+ * Setting values isn't thread safe as it can allocate tiles. Reading is.
  */
 public class FloatArray2D {
-    private final float[][] array;
-
     private final int minX;
     private final int minY;
+    private final int maxX;
+    private final int maxY;
+
+    private final int tileShift;
+    private final int tileOriginX;
+    private final int tileOriginY;
+    private final int firstTileCol;
+    private final int firstTileRow;
+    private final int tileCols;
+
+    // Bounds of each tile, cut down to the part inside the array
+    private final int[] tileMinX;
+    private final int[] tileMinY;
+    private final int[] tileMaxX;
+    private final int[] tileMaxY;
+
+    // Value of the cells in tiles that haven't been allocated
+    private float defaultValue;
+
+    // Tiles a row at a time, null if not allocated yet
+    private final FloatBuffer[] tiles;
+    // Where each tile starts in the grid, counting cells a tile at a time
+    private final int[] tileOffset;
+    private final GridStorage.GridTiles storage;
+
+    /**
+     * @param tileSize Width and height of the tiles, must be a power of two
+     * @param tileOriginX X coord of the corner of one of the tiles
+     * @param tileOriginY Y coord of the corner of one of the tiles
+     * @param storage Where to allocate the tiles
+     */
+    public FloatArray2D(final int xSize, final int ySize, final int minX, final int minY,
+                        final int tileSize, final int tileOriginX, final int tileOriginY,
+                        final GridStorage storage) {
+        if (Integer.bitCount(tileSize) != 1) {
+            throw new IllegalArgumentException("Tile size must be a power of two, got " + tileSize);
+        }
 
-    public FloatArray2D(final int xSize, final int ySize, final int minX, final int minY) {
         this.minX = minX;
         this.minY = minY;
-        this.array = new float[xSize][ySize];
+        this.maxX = minX + xSize - 1;
+        this.maxY = minY + ySize - 1;
+        this.tileShift = Integer.numberOfTrailingZeros(tileSize);
+        this.tileOriginX = tileOriginX;
+        this.tileOriginY = tileOriginY;
+        this.firstTileCol = (minX - tileOriginX) >> tileShift;
+        this.firstTileRow = (minY - tileOriginY) >> tileShift;
+        this.tileCols = ((maxX - tileOriginX) >> tileShift) - firstTileCol + 1;
+        final int tileRows = ((maxY - tileOriginY) >> tileShift) - firstTileRow + 1;
+        this.tiles = new FloatBuffer[tileCols * tileRows];
+
+        tileMinX = new int[tiles.length];
+        tileMinY = new int[tiles.length];
+        tileMaxX = new int[tiles.length];
+        tileMaxY = new int[tiles.length];
+        for (int tile = 0; tile < tiles.length; ++tile) {
+            final int col = firstTileCol + tile % tileCols;
+            final int row = firstTileRow + tile / tileCols;
+            tileMinX[tile] = Math.max(minX, tileOriginX + (col << tileShift));
+            tileMaxX[tile] = Math.min(maxX, tileOriginX + ((col + 1) << tileShift) - 1);
+            tileMinY[tile] = Math.max(minY, tileOriginY + (row << tileShift));
+            tileMaxY[tile] = Math.min(maxY, tileOriginY + ((row + 1) << tileShift) - 1);
+        }
+
+        tileOffset = new int[tiles.length];
+        long cells = 0;
+        for (int tile = 0; tile < tiles.length; ++tile) {
+            tileOffset[tile] = (int) cells;
+            cells += tileCellCount(tile);
+        }
+        this.storage = storage.tilesFor(cells * Float.BYTES);
     }
 
     public float get(final int x, final int y) {
-        return array[x - minX][y - minY];
+        final int tile = tileIndex(x, y);
+        final FloatBuffer values = tiles[tile];
+        return values == null ? defaultValue : values.get(indexInTile(tile, x, y));
     }
 
     public void set(final int x, final int y, final float value) {
-        array[x - minX][y - minY] = value;
+        final int tile = tileIndex(x, y);
+        if (tiles[tile] == null) {
+            if (value == defaultValue) {
+                return;
+            }
+            tiles[tile] = allocateTile(tile);
+        }
+        tiles[tile].put(indexInTile(tile, x, y), value);
     }
 
-    public void forEach(TriConsumer<Integer, Integer, Float> eachCell) {
-        for (int x = 0; x < array.length; ++x) {
-            for (int y = 0; y < array[x].length; ++y) {
-                eachCell.accept(x + minX, y + minY, array[x][y]);
+    /**
+     * Sets every cell to the value. Frees all the tiles as they aren't needed until a different value is set.
+     */
+    public void fill(final float value) {
+        defaultValue = value;
+        Arrays.fill(tiles, null);
+    }
+
+    public void forEach(final FloatCellConsumer eachCell) {
+        forEachInRect(minX, minY, maxX, maxY, eachCell);
+    }
+
+    /**
+     * Calls the function for each cell in the rectangle, which must be inside the array. Goes a tile at a time and then
+     * a row at a time within the tile so it reads through memory in order.
+     */
+    public void forEachInRect(final int rectMinX, final int rectMinY, final int rectMaxX, final int rectMaxY, final FloatCellConsumer eachCell) {
+        for (int tileRow = tileRowOf(rectMinY); tileRow <= tileRowOf(rectMaxY); ++tileRow) {
+            for (int tileCol = tileColOf(rectMinX); tileCol <= tileColOf(rectMaxX); ++tileCol) {
+                final int tile = tileRow * tileCols + tileCol;
+                final int fromX = Math.max(rectMinX, tileMinX[tile]);
+                final int toX = Math.min(rectMaxX, tileMaxX[tile]);
+                final int fromY = Math.max(rectMinY, tileMinY[tile]);
+                final int toY = Math.min(rectMaxY, tileMaxY[tile]);
+                final FloatBuffer values = tiles[tile];
+
+                for (int y = fromY; y <= toY; ++y) {
+                    if (values == null) {
+                        for (int x = fromX; x <= toX; ++x) {
+                            eachCell.accept(x, y, defaultValue);
+                        }
+                    } else {
+                        int i = indexInTile(tile, fromX, y);
+                        for (int x = fromX; x <= toX; ++x, ++i) {
+                            eachCell.accept(x, y, values.get(i));
+                        }
+                    }
+                }
             }
         }
     }
+
+    /**
+     * Calls the function with the bounds of each tile, cut down to the part inside the array
+     */
+    public void forEachTile(final RectConsumer onTile) {
+        for (int tile = 0; tile < tiles.length; ++tile) {
+            onTile.accept(tileMinX[tile], tileMinY[tile], tileMaxX[tile], tileMaxY[tile]);
+        }
+    }
+
+    /**
+     * Copies the whole array into the buffer a tile at a time
+     */
+    public void copyTo(final FloatBuffer buffer) {
+        for (int tile = 0; tile < tiles.length; ++tile) {
+            if (tiles[tile] != null) {
+                buffer.put((FloatBuffer) tiles[tile].duplicate().clear());
+            } else {
+                for (int i = tileCellCount(tile); i > 0; --i) {
+                    buffer.put(defaultValue);
+                }
+            }
+        }
+    }
+
+    /**
+     * Uses slices of a buffer written by copyTo as the tiles rather than copying it, so a mapped file is only read as
+     * the tiles are used. The buffer has to stay valid while the array is used, and setting values fails if it is read
+     * only.
+     */
+    public void useTilesFrom(final FloatBuffer buffer) {
+        int position = buffer.position();
+        for (int tile = 0; tile < tiles.length; ++tile) {
+            final FloatBuffer slice = buffer.duplicate();
+            slice.limit(position + tileCellCount(tile));
+            slice.position(position);
+            tiles[tile] = slice.slice();
+            position += tileCellCount(tile);
+        }
+        buffer.position(position);
+    }
+
+    private FloatBuffer allocateTile(final int tile) {
+        final FloatBuffer values = storage.allocateFloats(tileOffset[tile], tileCellCount(tile));
+        if (defaultValue != 0) {
+            for (int i = 0; i < values.capacity(); ++i) {
+                values.put(i, defaultValue);
+            }
+        }
+        return values;
+    }
+
+    private int tileIndex(final int x, final int y) {
+        return tileRowOf(y) * tileCols + tileColOf(x);
+    }
+
+    private int tileColOf(final int x) {
+        return ((x - tileOriginX) >> tileShift) - firstTileCol;
+    }
+
+    private int tileRowOf(final int y) {
+        return ((y - tileOriginY) >> tileShift) - firstTileRow;
+    }
+
+    private int indexInTile(final int tile, final int x, final int y) {
+        return (y - tileMinY[tile]) * (tileMaxX[tile] - tileMinX[tile] + 1) + (x - tileMinX[tile]);
+    }
+
+    private int tileCellCount(final int tile) {
+        return (tileMaxX[tile] - tileMinX[tile] + 1) * (tileMaxY[tile] - tileMinY[tile] + 1);
+    }
 }
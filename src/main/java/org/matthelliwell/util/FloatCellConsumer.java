@@ -0,0 +1,9 @@
+package org.matthelliwell.util;
+
+/**
+ * Receives the coordinates and value of a single cell in a grid of floats
+ */
+@FunctionalInterface
+public interface FloatCellConsumer {
+        void accept(int x, int y, float value);
+}
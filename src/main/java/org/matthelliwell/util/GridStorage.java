@@ -0,0 +1,129 @@
+package org.matthelliwell.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Where the tiles of the grids are stored. The grids for a square are hundreds of MB so keeping them off the heap
+ * stops them causing full GCs when several squares are being generated at once. Off heap memory is only released
+ * when the buffer is garbage collected.
+ */
+public enum GridStorage {
+    /**
+     * Ordinary arrays on the heap
+     */
+    HEAP {
+        @Override
+        ByteBuffer allocate(final int bytes) {
+            return ByteBuffer.allocate(bytes);
+        }
+    },
+
+    /**
+     * Direct buffers outside the heap. Limited by -XX:MaxDirectMemorySize.
+     */
+    DIRECT {
+        @Override
+        ByteBuffer allocate(final int bytes) {
+            return ByteBuffer.allocateDirect(bytes);
+        }
+    },
+
+    /**
+     * Memory mapped temporary files, so the OS can page out grids that aren't being used. Each grid has one file, which
+     * its tiles are slices of. The files are in java.io.tmpdir and are deleted once they are no longer mapped.
+     */
+    MAPPED {
+        @Override
+        ByteBuffer allocate(final int bytes) {
+            try {
+                final Path file = Files.createTempFile("grid", ".tile");
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                        StandardOpenOption.DELETE_ON_CLOSE)) {
+                    // The mapping stays valid after the channel is closed
+                    return channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    };
+
+    abstract ByteBuffer allocate(int bytes);
+
+    /**
+     * Returns where to allocate the tiles of one grid
+     * @param gridBytes Size of the whole grid
+     */
+    public GridTiles tilesFor(final long gridBytes) {
+        if (gridBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Grids can't be bigger than 2GB, got " + gridBytes + " bytes");
+        }
+        return new GridTiles(this, (int) gridBytes);
+    }
+
+    /**
+     * Allocates the tiles of one grid. Each tile is given its offset in the grid so mapped grids can slice all their
+     * tiles out of one file, which is only created when the first tile is allocated. The tiles of the other types are
+     * allocated separately. Like setting values in the grids this isn't thread safe.
+     */
+    public static class GridTiles {
+        private final GridStorage storage;
+        private final int gridBytes;
+        private ByteBuffer mapping;
+
+        // Offsets of the mapped tiles handed out so far. A grid can drop its tiles, eg when it is filled, and a tile
+        // that is allocated again gets the same slice back so has to be cleared.
+        private final Set<Integer> mappedOffsets = new HashSet<>();
+
+        private GridTiles(final GridStorage storage, final int gridBytes) {
+            this.storage = storage;
+            this.gridBytes = gridBytes;
+        }
+
+        /**
+         * @param offset Index of the tile's first float in the grid
+         */
+        public FloatBuffer allocateFloats(final int offset, final int count) {
+            if (storage == HEAP) {
+                return FloatBuffer.wrap(new float[count]);
+            }
+            return allocate(offset * Float.BYTES, count * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        }
+
+        /**
+         * @param offset Index of the tile's first byte in the grid
+         */
+        public ByteBuffer allocateBytes(final int offset, final int count) {
+            return allocate(offset, count);
+        }
+
+        private ByteBuffer allocate(final int offset, final int bytes) {
+            if (storage != MAPPED) {
+                return storage.allocate(bytes);
+            }
+
+            if (mapping == null) {
+                mapping = MAPPED.allocate(gridBytes);
+            }
+            final ByteBuffer tile = mapping.duplicate();
+            tile.limit(offset + bytes);
+            tile.position(offset);
+            final ByteBuffer slice = tile.slice();
+            if (!mappedOffsets.add(offset)) {
+                for (int i = 0; i < bytes; ++i) {
+                    slice.put(i, (byte) 0);
+                }
+            }
+            return slice;
+        }
+    }
+}
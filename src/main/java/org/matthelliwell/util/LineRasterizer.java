@@ -0,0 +1,40 @@
+package org.matthelliwell.util;
+
+/**
+ * Finds the cells on a straight line between two cells. Consecutive cells always share an edge, never just a corner,
+ * so the line has no gaps or diagonal steps. Only uses integer arithmetic and doesn't allocate anything.
+ */
+public class LineRasterizer {
+
+    /**
+     * Calls a function on each cell from (x0, y0) to (x1, y1). The first cell can be left out so that joined up
+     * segments don't visit the shared cell twice.
+     */
+    public static void rasterize(final int x0, final int y0, final int x1, final int y1, final boolean includeStart, final CellConsumer onCell) {
+        final int dx = Math.abs(x1 - x0);
+        final int dy = Math.abs(y1 - y0);
+        final int stepX = x0 < x1 ? 1 : -1;
+        final int stepY = y0 < y1 ? 1 : -1;
+
+        if (includeStart) {
+            onCell.accept(x0, y0);
+        }
+
+        // After i steps in x and j steps in y the next x boundary is crossed at (2i + 1) / 2dx of the way along the
+        // line and the next y boundary at (2j + 1) / 2dy. We step across whichever comes first. The error holds the
+        // difference between the two scaled by 2dx.dy so we can track it with integers.
+        int error = dy - dx;
+        int x = x0;
+        int y = y0;
+        for (int steps = dx + dy; steps > 0; --steps) {
+            if (error < 0) {
+                x += stepX;
+                error += 2 * dy;
+            } else {
+                y += stepY;
+                error -= 2 * dx;
+            }
+            onCell.accept(x, y);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package org.matthelliwell.util;
+
+import java.util.Arrays;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Finds the cells inside polygons with a scanline fill. For each row we work out where the edges of the polygon cross
+ * the row and fill between pairs of crossings, using the even-odd rule so holes are left empty. A cell is inside the
+ * polygon if its integer coordinate is.
+ *
+ * The working arrays are reused from one polygon to the next so this isn't thread safe.
+ */
+public class PolygonRasterizer {
+    private static final int INITIAL_EDGES = 64;
+
+    // For each edge, the first and last rows it crosses, where it crosses the first row and how far x moves per row
+    private int[] firstRow = new int[INITIAL_EDGES];
+    private int[] lastRow = new int[INITIAL_EDGES];
+    private double[] startX = new double[INITIAL_EDGES];
+    private double[] slope = new double[INITIAL_EDGES];
+    private int edgeCount;
+
+    // Edges sorted by their first row. The edges for a row start at bucketedEdges[bucketStart[row - minRow]]
+    private int[] bucketStart = new int[INITIAL_EDGES];
+    private int[] bucketedEdges = new int[INITIAL_EDGES];
+
+    // Edges crossing the current row and where they cross it
+    private int[] activeEdges = new int[INITIAL_EDGES];
+    private double[] crossings = new double[INITIAL_EDGES];
+
+    /**
+     * Calls a function for each run of cells inside any of the polygons in the geometry. Only cells inside the clip
+     * bounds are returned.
+     */
+    public void rasterize(final Geometry geometry, final Envelope clip, final SpanConsumer onSpan) {
+        for (int i = 0; i < geometry.getNumGeometries(); ++i) {
+            final Geometry part = geometry.getGeometryN(i);
+            if (part instanceof Polygon) {
+                rasterizePolygon((Polygon) part, clip, onSpan);
+            }
+        }
+    }
+
+    private void rasterizePolygon(final Polygon polygon, final Envelope clip, final SpanConsumer onSpan) {
+        final Envelope bounds = polygon.getEnvelopeInternal();
+        final int minRow = (int) Math.ceil(Math.max(bounds.getMinY(), clip.getMinY()));
+        final int maxRow = (int) Math.floor(Math.min(bounds.getMaxY(), clip.getMaxY()));
+        if (minRow > maxRow) {
+            return;
+        }
+
+        final int minCol = (int) Math.ceil(clip.getMinX());
+        final int maxCol = (int) Math.floor(clip.getMaxX());
+
+        edgeCount = 0;
+        addRing(polygon.getExteriorRing(), minRow, maxRow);
+        for (int i = 0; i < polygon.getNumInteriorRing(); ++i) {
+            addRing(polygon.getInteriorRingN(i), minRow, maxRow);
+        }
+
+        bucketEdgesByFirstRow(minRow, maxRow);
+
+        int activeCount = 0;
+        for (int row = minRow; row <= maxRow; ++row) {
+            // Drop the edges that finished on the previous row and add the ones starting on this row
+            int kept = 0;
+            for (int i = 0; i < activeCount; ++i) {
+                if (lastRow[activeEdges[i]] >= row) {
+                    activeEdges[kept++] = activeEdges[i];
+                }
+            }
+            activeCount = kept;
+            for (int i = bucketStart[row - minRow]; i < bucketStart[row - minRow + 1]; ++i) {
+                activeEdges[activeCount++] = bucketedEdges[i];
+            }
+
+            for (int i = 0; i < activeCount; ++i) {
+                final int edge = activeEdges[i];
+                crossings[i] = startX[edge] + (row - firstRow[edge]) * slope[edge];
+            }
+            Arrays.sort(crossings, 0, activeCount);
+
+            // Every other gap between crossings is inside the polygon
+            for (int i = 0; i + 1 < activeCount; i += 2) {
+                final int spanMinX = Math.max((int) Math.ceil(crossings[i]), minCol);
+                final int spanMaxX = Math.min((int) Math.floor(crossings[i + 1]), maxCol);
+                if (spanMinX <= spanMaxX) {
+                    onSpan.accept(row, spanMinX, spanMaxX);
+                }
+            }
+        }
+    }
+
+    private void addRing(final LineString ring, final int minRow, final int maxRow) {
+        final CoordinateSequence coords = ring.getCoordinateSequence();
+        for (int i = 0; i < coords.size() - 1; ++i) {
+            addEdge(coords.getX(i), coords.getY(i), coords.getX(i + 1), coords.getY(i + 1), minRow, maxRow);
+        }
+    }
+
+    private void addEdge(final double x0, final double y0, final double x1, final double y1, final int minRow, final int maxRow) {
+        // Horizontal edges never cross a row so can't change whether we are inside or outside
+        if (y0 == y1) {
+            return;
+        }
+
+        final double lowX = y0 < y1 ? x0 : x1;
+        final double lowY = Math.min(y0, y1);
+        final double highY = Math.max(y0, y1);
+
+        // An edge covers the rows from its low end up to, but not including, its high end so that the vertex shared
+        // by two edges is only counted once
+        final int first = Math.max((int) Math.ceil(lowY), minRow);
+        final int last = Math.min((int) Math.ceil(highY) - 1, maxRow);
+        if (first > last) {
+            return;
+        }
+
+        ensureEdgeCapacity(edgeCount + 1);
+
+        final double edgeSlope = (x1 - x0) / (y1 - y0);
+        firstRow[edgeCount] = first;
+        lastRow[edgeCount] = last;
+        startX[edgeCount] = lowX + (first - lowY) * edgeSlope;
+        slope[edgeCount] = edgeSlope;
+        ++edgeCount;
+    }
+
+    /**
+     * Counting sort of the edges by the first row they cross
+     */
+    private void bucketEdgesByFirstRow(final int minRow, final int maxRow) {
+        final int rows = maxRow - minRow + 1;
+        if (bucketStart.length < rows + 1) {
+            bucketStart = new int[rows + 1];
+        }
+        Arrays.fill(bucketStart, 0, rows + 1, 0);
+
+        for (int edge = 0; edge < edgeCount; ++edge) {
+            ++bucketStart[firstRow[edge] - minRow + 1];
+        }
+        for (int row = 0; row < rows; ++row) {
+            bucketStart[row + 1] += bucketStart[row];
+        }
+
+        // Placing the edges moves each bucket's start along to the start of the next bucket so shift them back after
+        for (int edge = 0; edge < edgeCount; ++edge) {
+            bucketedEdges[bucketStart[firstRow[edge] - minRow]++] = edge;
+        }
+        for (int row = rows; row > 0; --row) {
+            bucketStart[row] = bucketStart[row - 1];
+        }
+        bucketStart[0] = 0;
+    }
+
+    private void ensureEdgeCapacity(final int size) {
+        if (size > firstRow.length) {
+            final int newSize = Math.max(size, firstRow.length * 2);
+            firstRow = Arrays.copyOf(firstRow, newSize);
+            lastRow = Arrays.copyOf(lastRow, newSize);
+            startX = Arrays.copyOf(startX, newSize);
+            slope = Arrays.copyOf(slope, newSize);
+            bucketedEdges = new int[newSize];
+            activeEdges = new int[newSize];
+            crossings = new double[newSize];
+        }
+    }
+}
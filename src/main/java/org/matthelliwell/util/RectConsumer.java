@@ -0,0 +1,9 @@
+package org.matthelliwell.util;
+
+/**
+ * Receives a rectangle of cells from (minX, minY) to (maxX, maxY) inclusive
+ */
+@FunctionalInterface
+public interface RectConsumer {
+        void accept(int minX, int minY, int maxX, int maxY);
+}
@@ -0,0 +1,9 @@
+package org.matthelliwell.util;
+
+/**
+ * Receives a horizontal run of cells on row y, from minX to maxX inclusive
+ */
+@FunctionalInterface
+public interface SpanConsumer {
+        void accept(int y, int minX, int maxX);
+}
@@ -0,0 +1,161 @@
+package org.matthelliwell.util;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Records how long each stage of generating a grid square takes, how many cells it processed and how much memory it
+ * allocated, so we can see which squares and stages take up the time. Stages that run on the calling thread are timed
+ * with start() and closing the returned stage. Stages that are spread over the region workers record the time summed
+ * over all the workers and can't measure the allocated bytes.
+ */
+public class StageTimings {
+    private static final Queue<Timing> TIMINGS = new ConcurrentLinkedQueue<>();
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean ALLOCATION_SUPPORTED = THREADS instanceof com.sun.management.ThreadMXBean
+            && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemorySupported()
+            && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemoryEnabled();
+
+    /**
+     * A stage running on the current thread. Closing it records the timing.
+     */
+    public static class Stage implements AutoCloseable {
+        private final String square;
+        private final String name;
+        private final long startNanos;
+        private final long startAllocatedBytes;
+        private long cells;
+
+        private Stage(final String square, final String name, final long cells) {
+            this.square = square;
+            this.name = name;
+            this.cells = cells;
+            this.startAllocatedBytes = allocatedBytes();
+            this.startNanos = System.nanoTime();
+        }
+
+        public void setCells(final long cells) {
+            this.cells = cells;
+        }
+
+        @Override
+        public void close() {
+            final long nanos = System.nanoTime() - startNanos;
+            final long allocated = ALLOCATION_SUPPORTED ? allocatedBytes() - startAllocatedBytes : -1;
+            record(square, name, nanos, cells, allocated);
+        }
+    }
+
+    public static Stage start(final String square, final String stage) {
+        return new Stage(square, stage, 0);
+    }
+
+    /**
+     * @param cells How many cells the stage processes, if we know it up front
+     */
+    public static Stage start(final String square, final String stage, final long cells) {
+        return new Stage(square, stage, cells);
+    }
+
+    /**
+     * Records a stage timed by the caller
+     * @param allocatedBytes Bytes allocated by the stage, -1 if we don't know
+     */
+    public static void record(final String square, final String stage, final long nanos, final long cells, final long allocatedBytes) {
+        TIMINGS.add(new Timing(square, stage, nanos, cells, allocatedBytes));
+    }
+
+    /**
+     * Writes all the timings recorded so far. The file is JSON if its name ends in .json and CSV otherwise.
+     */
+    public static void writeReport(final Path file) throws IOException {
+        final List<Timing> timings = new ArrayList<>(TIMINGS);
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            if (file.getFileName().toString().toLowerCase().endsWith(".json")) {
+                writeJson(writer, timings);
+            } else {
+                writeCsv(writer, timings);
+            }
+        }
+        System.out.println("Wrote " + timings.size() + " stage timings to " + file);
+    }
+
+    private static void writeCsv(final PrintWriter writer, final List<Timing> timings) {
+        writer.println("square,stage,millis,cells,cells_per_sec,allocated_bytes");
+        for (final Timing timing : timings) {
+            writer.println(timing.square + ","
+                    + timing.stage + ","
+                    + timing.getMillis() + ","
+                    + timing.cells + ","
+                    + (timing.getCellsPerSecond() < 0 ? "" : timing.getCellsPerSecond()) + ","
+                    + (timing.allocatedBytes < 0 ? "" : timing.allocatedBytes));
+        }
+    }
+
+    private static void writeJson(final PrintWriter writer, final List<Timing> timings) {
+        writer.println("[");
+        for (int i = 0; i < timings.size(); ++i) {
+            final Timing timing = timings.get(i);
+            writer.print("  {\"square\": \"" + escape(timing.square)
+                    + "\", \"stage\": \"" + escape(timing.stage)
+                    + "\", \"millis\": " + timing.getMillis()
+                    + ", \"cells\": " + timing.cells
+                    + ", \"cellsPerSec\": " + (timing.getCellsPerSecond() < 0 ? "null" : timing.getCellsPerSecond())
+                    + ", \"allocatedBytes\": " + (timing.allocatedBytes < 0 ? "null" : timing.allocatedBytes)
+                    + "}");
+            writer.println(i < timings.size() - 1 ? "," : "");
+        }
+        writer.println("]");
+    }
+
+    private static String escape(final String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static long allocatedBytes() {
+        if (!ALLOCATION_SUPPORTED) {
+            return 0;
+        }
+        return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static class Timing {
+        final String square;
+        final String stage;
+        final long nanos;
+        final long cells;
+        final long allocatedBytes;
+
+        Timing(final String square, final String stage, final long nanos, final long cells, final long allocatedBytes) {
+            this.square = square;
+            this.stage = stage;
+            this.nanos = nanos;
+            this.cells = cells;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        long getMillis() {
+            return nanos / 1_000_000;
+        }
+
+        /**
+         * Returns -1 if the stage doesn't process cells or was too quick to measure
+         */
+        long getCellsPerSecond() {
+            if (cells == 0 || nanos == 0) {
+                return -1;
+            }
+            return Math.round(cells * 1e9 / nanos);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package org.matthelliwell.util;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+
+/**
+ * Finds the cells within a given distance of a line. Each segment of the line covers a capsule shape, ie a rectangle
+ * along the segment with a half circle on each end. A capsule is convex so its intersection with a row is a single run
+ * of cells which we can work out directly. The capsules of neighbouring segments overlap at the shared point which
+ * gives rounded joins without having to build a buffer polygon.
+ *
+ * Keeps the current run in fields so isn't thread safe.
+ */
+public class ThickLineRasterizer {
+    // Extent of the run on the current row. Empty if low > high.
+    private double low;
+    private double high;
+
+    /**
+     * Calls a function for each run of cells within halfWidth of any of the lines in the geometry. Only cells inside
+     * the clip bounds are returned. Runs from neighbouring segments can overlap.
+     */
+    public void rasterize(final Geometry geometry, final double halfWidth, final Envelope clip, final SpanConsumer onSpan) {
+        for (int n = 0; n < geometry.getNumGeometries(); ++n) {
+            final Geometry part = geometry.getGeometryN(n);
+            if (part instanceof LineString) {
+                final CoordinateSequence coords = ((LineString) part).getCoordinateSequence();
+                if (coords.size() == 1) {
+                    rasterizeSegment(coords.getX(0), coords.getY(0), coords.getX(0), coords.getY(0), halfWidth, clip, onSpan);
+                }
+                for (int i = 0; i < coords.size() - 1; ++i) {
+                    rasterizeSegment(coords.getX(i), coords.getY(i), coords.getX(i + 1), coords.getY(i + 1), halfWidth, clip, onSpan);
+                }
+            }
+        }
+    }
+
+    private void rasterizeSegment(final double ax, final double ay, final double bx, final double by,
+                                  final double halfWidth, final Envelope clip, final SpanConsumer onSpan) {
+        final int minRow = (int) Math.ceil(Math.max(Math.min(ay, by) - halfWidth, clip.getMinY()));
+        final int maxRow = (int) Math.floor(Math.min(Math.max(ay, by) + halfWidth, clip.getMaxY()));
+        final int minCol = (int) Math.ceil(clip.getMinX());
+        final int maxCol = (int) Math.floor(clip.getMaxX());
+
+        final double dx = bx - ax;
+        final double dy = by - ay;
+        final double length = Math.sqrt(dx * dx + dy * dy);
+
+        for (int row = minRow; row <= maxRow; ++row) {
+            low = Double.POSITIVE_INFINITY;
+            high = Double.NEGATIVE_INFINITY;
+
+            addCircle(ax, ay, halfWidth, row);
+            addCircle(bx, by, halfWidth, row);
+            if (length > 0) {
+                addRectangle(ax, ay, dx, dy, length, halfWidth, row);
+            }
+
+            final int spanMinX = Math.max((int) Math.ceil(low), minCol);
+            final int spanMaxX = Math.min((int) Math.floor(high), maxCol);
+            if (spanMinX <= spanMaxX) {
+                onSpan.accept(row, spanMinX, spanMaxX);
+            }
+        }
+    }
+
+    /**
+     * Extends the run with the part of the row inside the circle round one end of the segment
+     */
+    private void addCircle(final double cx, final double cy, final double radius, final int row) {
+        final double offsetY = row - cy;
+        final double halfChord2 = radius * radius - offsetY * offsetY;
+        if (halfChord2 >= 0) {
+            final double halfChord = Math.sqrt(halfChord2);
+            low = Math.min(low, cx - halfChord);
+            high = Math.max(high, cx + halfChord);
+        }
+    }
+
+    /**
+     * Extends the run with the part of the row inside the rectangle along the segment. A point is in the rectangle if
+     * its projection onto the segment is between the ends and it is no more than halfWidth from the segment. Along a
+     * row both of these are linear in x so each gives a range of x which we intersect.
+     */
+    private void addRectangle(final double ax, final double ay, final double dx, final double dy,
+                              final double length, final double halfWidth, final int row) {
+        final double offsetY = row - ay;
+        double rectLow = Double.NEGATIVE_INFINITY;
+        double rectHigh = Double.POSITIVE_INFINITY;
+
+        // Between the ends: 0 <= (x - ax).dx + offsetY.dy <= length^2
+        if (dx != 0) {
+            final double end1 = -offsetY * dy / dx;
+            final double end2 = (length * length - offsetY * dy) / dx;
+            rectLow = Math.max(rectLow, Math.min(end1, end2));
+            rectHigh = Math.min(rectHigh, Math.max(end1, end2));
+        } else if (offsetY * dy < 0 || offsetY * dy > length * length) {
+            return;
+        }
+
+        // Close enough to the segment: -halfWidth.length <= (x - ax).dy - offsetY.dx <= halfWidth.length
+        if (dy != 0) {
+            final double side1 = (offsetY * dx - halfWidth * length) / dy;
+            final double side2 = (offsetY * dx + halfWidth * length) / dy;
+            rectLow = Math.max(rectLow, Math.min(side1, side2));
+            rectHigh = Math.min(rectHigh, Math.max(side1, side2));
+        } else if (Math.abs(offsetY * dx) > halfWidth * length) {
+            return;
+        }
+
+        if (rectLow <= rectHigh) {
+            low = Math.min(low, ax + rectLow);
+            high = Math.max(high, ax + rectHigh);
+        }
+    }
+}
@@ -1,6 +0,0 @@
-package org.matthelliwell.util;
-
-@FunctionalInterface
-public interface TriConsumer<A, B, C> {
-        void accept(A a, B b, C c);
-}
@@ -0,0 +1,66 @@
+package org.matthelliwell.util;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Finds the cells inside a triangle. A triangle is convex so each row it covers is a single run of cells between the
+ * left and right most points where its edges cross the row. A cell is inside if its integer coordinate is, including
+ * cells exactly on an edge, so cells on an edge shared by two triangles are returned for both.
+ *
+ * Keeps the current run in fields so isn't thread safe.
+ */
+public class TriangleRasterizer {
+    // Extent of the run on the current row. Empty if low > high.
+    private double low;
+    private double high;
+
+    /**
+     * Calls a function for each run of cells inside the triangle. Only cells inside the clip bounds are returned.
+     */
+    public void rasterize(final double x0, final double y0,
+                          final double x1, final double y1,
+                          final double x2, final double y2,
+                          final Envelope clip, final SpanConsumer onSpan) {
+        final int minRow = (int) Math.ceil(Math.max(Math.min(y0, Math.min(y1, y2)), clip.getMinY()));
+        final int maxRow = (int) Math.floor(Math.min(Math.max(y0, Math.max(y1, y2)), clip.getMaxY()));
+        final int minCol = (int) Math.ceil(clip.getMinX());
+        final int maxCol = (int) Math.floor(clip.getMaxX());
+
+        for (int row = minRow; row <= maxRow; ++row) {
+            low = Double.POSITIVE_INFINITY;
+            high = Double.NEGATIVE_INFINITY;
+
+            addEdge(x0, y0, x1, y1, row);
+            addEdge(x1, y1, x2, y2, row);
+            addEdge(x2, y2, x0, y0, row);
+
+            final int spanMinX = Math.max((int) Math.ceil(low), minCol);
+            final int spanMaxX = Math.min((int) Math.floor(high), maxCol);
+            if (spanMinX <= spanMaxX) {
+                onSpan.accept(row, spanMinX, spanMaxX);
+            }
+        }
+    }
+
+    /**
+     * Extends the run with the point where the edge crosses the row, or the whole edge if it lies along the row. We
+     * always work from the lower end of the edge so an edge shared by two triangles gives exactly the same crossing
+     * for both.
+     */
+    private void addEdge(final double ax, final double ay, final double bx, final double by, final int row) {
+        if (row < Math.min(ay, by) || row > Math.max(ay, by)) {
+            return;
+        }
+
+        if (ay == by) {
+            low = Math.min(low, Math.min(ax, bx));
+            high = Math.max(high, Math.max(ax, bx));
+        } else {
+            final double x = ay < by
+                    ? ax + (row - ay) * (bx - ax) / (by - ay)
+                    : bx + (row - by) * (ax - bx) / (ay - by);
+            low = Math.min(low, x);
+            high = Math.max(high, x);
+        }
+    }
+}